@@ -1,6 +1,7 @@
 plugins {
     id("java")
     id("application")
+    id("me.champeau.jmh") version "0.7.2"
 }
 
 group = "git.campones76"
@@ -35,12 +36,31 @@ repositories {
 
 dependencies {
     implementation("com.github.gotson:webp-imageio:0.2.2")
+    // Gallery libraries bundled by the offline library mode (VendorLibraries)
+    implementation("org.webjars:jquery:3.6.0")
+    implementation("org.webjars.npm:nanogallery2:3.0.5") {
+        isTransitive = false
+    }
 }
 
 tasks.test {
     useJUnitPlatform()
 }
 
+// Microbenchmarks for the thumbnail and HTML hot paths (src/jmh/java), run with ./gradlew jmh
+// Results go to build/results/jmh/results.json
+jmh {
+    warmupIterations.set(2)
+    iterations.set(5)
+    fork.set(1)
+    benchmarkMode.set(listOf("thrpt", "avgt"))
+    timeUnit.set("ms")
+    profilers.set(listOf("gc"))
+    resultFormat.set("JSON")
+    // 45MP frames need room for several decoded rasters
+    jvmArgs.set(listOf("-Xmx4g", "-Djava.awt.headless=true"))
+}
+
 // Create a fat JAR with all dependencies
 tasks.register<Jar>("fatJar") {
     archiveClassifier.set("all")
@@ -0,0 +1,122 @@
+package git.campones76;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * Per-thumbnail codec overhead with and without {@link CodecPool}. The unpooled
+ * benchmarks repeat what every thumbnail used to do: scan the registry, create and
+ * configure a writer or reader, and dispose it. Small edges show the setup cost best;
+ * the gc profiler shows the garbage it leaves.
+ */
+@State(Scope.Thread)
+public class CodecPoolBenchmark {
+
+    @Param({"60", "240", "460"})
+    public int edge;
+
+    @Param({"webp", "jpg"})
+    public String format;
+
+    private BufferedImage thumbnail;
+    private File encodedFile;
+    private File sourceFile;
+    private final EncodeBuffer buffer = new EncodeBuffer(64 * 1024);
+
+    @Setup
+    public void setUp() throws IOException {
+        BufferedImage source = SyntheticImages.create(2);
+        Dimension target = ThumbnailSize.longEdge(edge).getTargetSize(source.getWidth(), source.getHeight());
+        thumbnail = ThumbnailGenerator.resize(source, target.width, target.height);
+        encodedFile = File.createTempFile("codec-", "." + format);
+        sourceFile = SyntheticImages.writeJpeg(source, "codec-source-");
+    }
+
+    @TearDown
+    public void tearDown() {
+        encodedFile.delete();
+    }
+
+    /**
+     * Encode to a file with a writer looked up and configured for this image alone
+     */
+    @Benchmark
+    public long encodeUnpooled() throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(format);
+        if (!writers.hasNext()) {
+            return 0;
+        }
+        ImageWriter writer = writers.next();
+        ImageWriteParam writeParam = writer.getDefaultWriteParam();
+        try {
+            writeParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            writeParam.setCompressionType(writeParam.getCompressionTypes()[0]);
+            writeParam.setCompressionQuality(0.85f);
+            try (ImageOutputStream ios = ImageIO.createImageOutputStream(encodedFile)) {
+                writer.setOutput(ios);
+                writer.write(null, new IIOImage(thumbnail, null, null), writeParam);
+            }
+        } finally {
+            writer.dispose();
+        }
+        return encodedFile.length();
+    }
+
+    /**
+     * Encode into the reused buffer with this thread's pooled writer, then one file write
+     */
+    @Benchmark
+    public long encodePooled() throws IOException {
+        CodecPool codecs = CodecPool.forCurrentThread();
+        if (!codecs.canWrite(format)) {
+            return 0;
+        }
+        codecs.encode(thumbnail, format, 0.85f, buffer);
+        try (FileOutputStream out = new FileOutputStream(encodedFile)) {
+            buffer.writeTo(out);
+        }
+        return encodedFile.length();
+    }
+
+    /**
+     * Header read, as done for every photo's memory estimate, with a fresh reader
+     */
+    @Benchmark
+    public int readSizeUnpooled() throws IOException {
+        try (ImageInputStream iis = ImageIO.createImageInputStream(sourceFile)) {
+            ImageReader reader = ImageIO.getImageReaders(iis).next();
+            try {
+                reader.setInput(iis, true, true);
+                return reader.getWidth(0);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Header read with this thread's pooled reader
+     */
+    @Benchmark
+    public int readSizePooled() {
+        return ThumbnailGenerator.readImageSize(sourceFile).width;
+    }
+}
@@ -0,0 +1,74 @@
+package git.campones76;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Decode and scale cost per source image size
+ */
+@State(Scope.Benchmark)
+public class DecodeScaleBenchmark {
+
+    @Param({"12", "24", "45"})
+    public int megapixels;
+
+    private File sourceFile;
+    private BufferedImage decoded;
+    private Dimension target;
+    private ThumbnailGenerator generator;
+
+    @Setup
+    public void setUp() throws IOException {
+        decoded = SyntheticImages.create(megapixels);
+        sourceFile = SyntheticImages.writeJpeg(decoded, "decode-" + megapixels + "mp-");
+        target = ThumbnailSize.forGalleryMosaic().getTargetSize(decoded.getWidth(), decoded.getHeight());
+        generator = new ThumbnailGenerator(85);
+    }
+
+    /**
+     * Full-resolution decode, as ImageIO.read does it
+     */
+    @Benchmark
+    public BufferedImage decodeFull() throws IOException {
+        return ImageIO.read(sourceFile);
+    }
+
+    /**
+     * Subsampled decode plus high-quality resize, the path createThumbnails uses
+     */
+    @Benchmark
+    public BufferedImage decodeScaled() throws IOException {
+        return generator.readScaledImage(sourceFile);
+    }
+
+    /**
+     * Single bilinear Graphics2D.drawImage from the full raster to the thumbnail size
+     */
+    @Benchmark
+    public BufferedImage scaleBilinear() {
+        BufferedImage thumbnail = new BufferedImage(target.width, target.height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = thumbnail.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        g.drawImage(decoded, 0, 0, target.width, target.height, null);
+        g.dispose();
+        return thumbnail;
+    }
+
+    /**
+     * Progressive halving resize from the full raster to the thumbnail size
+     */
+    @Benchmark
+    public BufferedImage scaleProgressive() {
+        return ThumbnailGenerator.resize(decoded, target.width, target.height);
+    }
+}
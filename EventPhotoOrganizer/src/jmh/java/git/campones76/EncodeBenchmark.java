@@ -0,0 +1,60 @@
+package git.campones76;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Thumbnail encode cost per compression quality, for WebP and the JPEG fallback.
+ * Thumbnails are scaled from the synthetic source once, so only encoding is measured.
+ */
+@State(Scope.Benchmark)
+public class EncodeBenchmark {
+
+    @Param({"12", "24", "45"})
+    public int megapixels;
+
+    @Param({"50", "75", "85", "100"})
+    public int quality;
+
+    private BufferedImage thumbnail;
+    private ThumbnailGenerator generator;
+    private File webpFile;
+    private File jpegFile;
+
+    @Setup
+    public void setUp() throws IOException {
+        BufferedImage source = SyntheticImages.create(megapixels);
+        Dimension target = ThumbnailSize.forGalleryMosaic().getTargetSize(source.getWidth(), source.getHeight());
+        thumbnail = ThumbnailGenerator.resize(source, target.width, target.height);
+        generator = new ThumbnailGenerator(quality);
+        webpFile = File.createTempFile("encode-", ".webp");
+        jpegFile = File.createTempFile("encode-", ".jpg");
+    }
+
+    @TearDown
+    public void tearDown() {
+        webpFile.delete();
+        jpegFile.delete();
+    }
+
+    @Benchmark
+    public long saveAsWebP() throws IOException {
+        generator.saveAsWebP(thumbnail, webpFile);
+        return webpFile.length();
+    }
+
+    @Benchmark
+    public long saveAsJPEG() throws IOException {
+        generator.saveAsJPEG(thumbnail, jpegFile);
+        return jpegFile.length();
+    }
+}
@@ -0,0 +1,59 @@
+package git.campones76;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Gallery page generation for large events
+ */
+@State(Scope.Benchmark)
+public class HtmlBenchmark {
+
+    @Param({"500", "5000", "20000"})
+    public int photoCount;
+
+    private File destDir;
+    private EventMetadata metadata;
+    private List<String> photoFilenames;
+
+    @Setup
+    public void setUp() throws IOException {
+        destDir = Files.createTempDirectory("html-bench").toFile();
+        metadata = new EventMetadata("Benchmark Night", "The Venue", "Lisbon", "2025-06-01", "Gabe Fernando");
+        photoFilenames = new ArrayList<>(photoCount);
+        for (int i = 1; i <= photoCount; i++) {
+            photoFilenames.add("Credit Gabe Fernando - " + i + ".jpg");
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        deleteRecursively(destDir);
+    }
+
+    @Benchmark
+    public long generateGallery() throws IOException {
+        new HTMLGenerator().generateGallery(destDir, metadata, photoFilenames);
+        return new File(destDir, "index.html").length();
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
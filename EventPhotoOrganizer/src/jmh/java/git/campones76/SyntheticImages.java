@@ -0,0 +1,54 @@
+package git.campones76;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Generates repeatable test images for the benchmarks. Gradients plus noise give the
+ * codecs realistic work, unlike flat colours which compress to almost nothing.
+ */
+final class SyntheticImages {
+
+    private SyntheticImages() {
+    }
+
+    /**
+     * Creates a 3:2 image of roughly the given number of megapixels
+     */
+    static BufferedImage create(int megapixels) {
+        int height = (int) Math.sqrt(megapixels * 1_000_000 / 1.5);
+        int width = (int) (height * 1.5);
+        return create(width, height);
+    }
+
+    static BufferedImage create(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        Random random = new Random(42);
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            for (int x = 0; x < width; x++) {
+                int noise = random.nextInt(32);
+                int r = (x * 255 / width + noise) & 0xFF;
+                int g = (y * 255 / height + noise) & 0xFF;
+                int b = ((x ^ y) + noise) & 0xFF;
+                pixels[row + x] = (r << 16) | (g << 8) | b;
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Writes an image as a temporary JPEG that is deleted when the JVM exits
+     */
+    static File writeJpeg(BufferedImage image, String prefix) throws IOException {
+        File file = File.createTempFile(prefix, ".jpg");
+        file.deleteOnExit();
+        ImageIO.write(image, "jpg", file);
+        return file;
+    }
+}
@@ -0,0 +1,49 @@
+package git.campones76;
+
+import javax.imageio.stream.ImageInputStreamImpl;
+import java.nio.ByteBuffer;
+
+/**
+ * ImageIO input over bytes already in memory, such as a photo read by
+ * {@link SourceBuffer}. ImageIO's own streams over an InputStream would copy the
+ * data into a cache first.
+ */
+public class ByteBufferImageInputStream extends ImageInputStreamImpl {
+    private final ByteBuffer data;
+
+    /**
+     * @param content the image bytes from its position to its limit; not modified
+     */
+    public ByteBufferImageInputStream(ByteBuffer content) {
+        this.data = content.slice();
+    }
+
+    @Override
+    public int read() {
+        bitOffset = 0;
+        if (streamPos >= data.limit()) {
+            return -1;
+        }
+        return data.get((int) streamPos++) & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        bitOffset = 0;
+        if (len == 0) {
+            return 0;
+        }
+        if (streamPos >= data.limit()) {
+            return -1;
+        }
+        int count = (int) Math.min(len, data.limit() - streamPos);
+        data.get((int) streamPos, b, off, count);
+        streamPos += count;
+        return count;
+    }
+
+    @Override
+    public long length() {
+        return data.limit();
+    }
+}
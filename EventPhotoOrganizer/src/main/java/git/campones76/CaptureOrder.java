@@ -0,0 +1,117 @@
+package git.campones76;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Puts photos in the order they were taken, for shoots merged from several cameras.
+ * Capture times are read in parallel from the Exif headers; each camera body's clock
+ * can be shifted by an offset to line it up with the others.
+ * Photos without a capture time are placed by their file modification time. Both are
+ * compared as instants; capture times without a time zone offset are read in the
+ * system time zone, the zone the modification times were written in.
+ */
+public class CaptureOrder {
+    public enum Mode {
+        SELECTION("Order selected"),
+        CAPTURE_TIME("Capture time (Exif)");
+
+        private final String label;
+
+        Mode(String label) {
+            this.label = label;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    // Reading headers waits on the disk more than the CPU
+    private static final int READ_THREADS = 8;
+
+    private final Map<String, Long> cameraOffsets;
+
+    /**
+     * @param cameraOffsets milliseconds added to the capture times of each camera body,
+     *                      keyed by {@link CaptureTime#getCamera()}
+     */
+    public CaptureOrder(Map<String, Long> cameraOffsets) {
+        this.cameraOffsets = new HashMap<>(cameraOffsets);
+    }
+
+    /**
+     * Sorts photos by corrected capture time, keeping the existing order for equal times
+     */
+    public void sort(List<File> photos) throws InterruptedException {
+        List<CaptureTime> times = readAll(photos);
+        long[] keys = new long[photos.size()];
+        for (int i = 0; i < keys.length; i++) {
+            CaptureTime time = times.get(i);
+            keys[i] = time != null
+                    ? time.getEpochMillis() + cameraOffsets.getOrDefault(time.getCamera(), 0L)
+                    : photos.get(i).lastModified();
+        }
+
+        List<Integer> order = new ArrayList<>(photos.size());
+        for (int i = 0; i < keys.length; i++) {
+            order.add(i);
+        }
+        order.sort(Comparator.comparingLong(i -> keys[i]));
+        List<File> sorted = new ArrayList<>(photos.size());
+        for (int index : order) {
+            sorted.add(photos.get(index));
+        }
+        for (int i = 0; i < sorted.size(); i++) {
+            photos.set(i, sorted.get(i));
+        }
+    }
+
+    /**
+     * Camera bodies found in the photos with the number of photos from each, for
+     * choosing offsets; photos without a camera are not counted
+     */
+    public static Map<String, Integer> findCameras(List<File> photos) throws InterruptedException {
+        Map<String, Integer> cameras = new TreeMap<>();
+        for (CaptureTime time : readAll(photos)) {
+            if (time != null && time.getCamera() != null) {
+                cameras.merge(time.getCamera(), 1, Integer::sum);
+            }
+        }
+        return cameras;
+    }
+
+    /**
+     * Reads the capture time of every photo, null where there is none
+     */
+    static List<CaptureTime> readAll(List<File> photos) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(READ_THREADS, photos.size())));
+        try {
+            List<Future<CaptureTime>> futures = new ArrayList<>(photos.size());
+            for (File photo : photos) {
+                futures.add(executor.submit(() -> CaptureTime.read(photo)));
+            }
+            List<CaptureTime> times = new ArrayList<>(photos.size());
+            for (Future<CaptureTime> future : futures) {
+                try {
+                    times.add(future.get());
+                } catch (ExecutionException e) {
+                    times.add(null);
+                }
+            }
+            return times;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package git.campones76;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+
+/**
+ * When a photo was taken and by which camera body, from its Exif metadata.
+ * Only the marker segments up to the Exif segment are read, usually the first few KB
+ * of the file; nothing is decoded.
+ */
+public class CaptureTime {
+    private static final int TAG_MAKE = 0x010F;
+    private static final int TAG_MODEL = 0x0110;
+    private static final int TAG_EXIF_IFD = 0x8769;
+    private static final int TAG_DATE_TIME_ORIGINAL = 0x9003;
+    private static final int TAG_OFFSET_TIME_ORIGINAL = 0x9011;
+    private static final int TAG_SUB_SEC_TIME_ORIGINAL = 0x9291;
+    private static final int TAG_BODY_SERIAL_NUMBER = 0xA431;
+    private static final DateTimeFormatter EXIF_DATE_TIME = DateTimeFormatter.ofPattern("yyyy:MM:dd HH:mm:ss");
+
+    private final long epochMillis;
+    private final String camera;
+
+    private CaptureTime(long epochMillis, String camera) {
+        this.epochMillis = epochMillis;
+        this.camera = camera;
+    }
+
+    /**
+     * Reads the capture time of a JPEG
+     * @return the capture time, or null if the file has no readable DateTimeOriginal
+     */
+    public static CaptureTime read(File photo) {
+        try (InputStream in = Files.newInputStream(photo.toPath())) {
+            JpegHeader header = JpegHeader.read(in, true);
+            if (header == null || header.getExifData() == null) {
+                return null;
+            }
+            return parse(new TiffReader(header.getExifData()));
+        } catch (IOException | RuntimeException e) {
+            // Truncated or malformed metadata: order the photo by its file time instead
+            return null;
+        }
+    }
+
+    private static CaptureTime parse(TiffReader tiff) throws IOException {
+        TiffReader.Ifd ifd0 = tiff.readIfd(tiff.getFirstIfdOffset());
+        TiffReader.Entry exifPointer = ifd0.get(TAG_EXIF_IFD);
+        if (exifPointer == null) {
+            return null;
+        }
+        TiffReader.Ifd exif = tiff.readIfd((int) tiff.getNumber(exifPointer));
+        String dateTime = getString(tiff, exif, TAG_DATE_TIME_ORIGINAL);
+        if (dateTime == null) {
+            return null;
+        }
+
+        LocalDateTime local;
+        try {
+            local = LocalDateTime.parse(dateTime, EXIF_DATE_TIME);
+        } catch (DateTimeParseException e) {
+            // Cameras without a set clock write "0000:00:00 00:00:00" or blanks
+            return null;
+        }
+        // Without an offset the camera clock is taken to be in this computer's time zone,
+        // the same zone file modification times of photos without Exif are compared in
+        ZoneId zone = ZoneId.systemDefault();
+        String offsetTime = getString(tiff, exif, TAG_OFFSET_TIME_ORIGINAL);
+        if (offsetTime != null) {
+            try {
+                zone = ZoneOffset.of(offsetTime);
+            } catch (RuntimeException e) {
+                // Keep the system zone
+            }
+        }
+        long millis = local.atZone(zone).toInstant().toEpochMilli()
+                + parseSubSeconds(getString(tiff, exif, TAG_SUB_SEC_TIME_ORIGINAL));
+
+        StringBuilder camera = new StringBuilder();
+        String make = getString(tiff, ifd0, TAG_MAKE);
+        String model = getString(tiff, ifd0, TAG_MODEL);
+        if (model != null) {
+            // Most models already start with the make ("Canon EOS R5")
+            if (make != null && !model.toLowerCase(Locale.ROOT).startsWith(make.toLowerCase(Locale.ROOT).split(" ")[0])) {
+                camera.append(make).append(' ');
+            }
+            camera.append(model);
+        } else if (make != null) {
+            camera.append(make);
+        }
+        String serial = getString(tiff, exif, TAG_BODY_SERIAL_NUMBER);
+        if (serial != null) {
+            camera.append(camera.length() > 0 ? " #" : "#").append(serial);
+        }
+        return new CaptureTime(millis, camera.length() > 0 ? camera.toString() : null);
+    }
+
+    private static String getString(TiffReader tiff, TiffReader.Ifd ifd, int tag) throws IOException {
+        TiffReader.Entry entry = ifd.get(tag);
+        if (entry == null) {
+            return null;
+        }
+        String value = tiff.getString(entry);
+        return value.isEmpty() ? null : value;
+    }
+
+    /**
+     * Milliseconds of a SubSecTime value, the decimal digits after the seconds
+     */
+    static int parseSubSeconds(String digits) {
+        if (digits == null) {
+            return 0;
+        }
+        int millis = 0;
+        int scale = 100;
+        for (int i = 0; i < digits.length() && scale > 0; i++, scale /= 10) {
+            char c = digits.charAt(i);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            millis += (c - '0') * scale;
+        }
+        return millis;
+    }
+
+    /**
+     * Capture time in milliseconds since the epoch, comparable with file modification
+     * times. Times without an OffsetTimeOriginal are taken to be in the system time zone.
+     */
+    public long getEpochMillis() {
+        return epochMillis;
+    }
+
+    /**
+     * Camera body, such as "Canon EOS R5 #0123", or null if the photo does not say
+     */
+    public String getCamera() {
+        return camera;
+    }
+}
@@ -0,0 +1,149 @@
+package git.campones76;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.spi.ImageReaderSpi;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Image writers and readers of one thread, looked up and configured once and reset
+ * between images. Looking codecs up scans the ImageIO service registry, and every
+ * writer comes with its own native state and parameters; over thousands of small
+ * thumbnails that setup adds up to measurable time and garbage. Each worker thread
+ * gets its own pool from {@link #forCurrentThread}, so nothing here is shared.
+ */
+public class CodecPool {
+    private static final ThreadLocal<CodecPool> POOLS = ThreadLocal.withInitial(CodecPool::new);
+
+    // A format maps to null once it is known to have no writer
+    private final Map<String, PooledWriter> writers = new HashMap<>();
+    private final List<ImageReader> readers = new ArrayList<>();
+
+    /**
+     * The pool of the calling thread
+     */
+    public static CodecPool forCurrentThread() {
+        return POOLS.get();
+    }
+
+    /**
+     * Whether an ImageIO writer for format is installed
+     */
+    public boolean canWrite(String format) {
+        return getWriter(format) != null;
+    }
+
+    /**
+     * Encodes image into buffer, replacing its contents
+     * @param format ImageIO format name, such as "webp" or "jpg"
+     * @param quality compression quality between 0.0 and 1.0
+     * @return the encoded size in bytes
+     * @throws IOException if there is no writer for format or it fails
+     */
+    public int encode(BufferedImage image, String format, float quality, EncodeBuffer buffer)
+            throws IOException {
+        buffer.clear();
+        write(image, format, quality, buffer);
+        return buffer.size();
+    }
+
+    /**
+     * Encodes image into ios
+     * @param quality compression quality between 0.0 and 1.0
+     * @throws IOException if there is no writer for format or it fails
+     */
+    public void write(BufferedImage image, String format, float quality, ImageOutputStream ios)
+            throws IOException {
+        PooledWriter pooled = getWriter(format);
+        if (pooled == null) {
+            throw new IOException(format + " writer not available");
+        }
+        try {
+            if (pooled.param.canWriteCompressed()) {
+                pooled.param.setCompressionQuality(quality);
+            }
+            pooled.writer.setOutput(ios);
+            pooled.writer.write(null, new IIOImage(image, null, null), pooled.param);
+            pooled.writer.reset();
+        } catch (IOException | RuntimeException e) {
+            // The writer may be left mid-image; the next image gets a fresh one
+            writers.remove(format);
+            pooled.writer.dispose();
+            throw e;
+        }
+    }
+
+    private PooledWriter getWriter(String format) {
+        if (writers.containsKey(format)) {
+            return writers.get(format);
+        }
+        Iterator<ImageWriter> found = ImageIO.getImageWritersByFormatName(format);
+        PooledWriter pooled = found.hasNext() ? new PooledWriter(found.next()) : null;
+        writers.put(format, pooled);
+        return pooled;
+    }
+
+    /**
+     * A reader for the image in iis, with iis set as its input (seek forward only,
+     * metadata ignored). Readers already in the pool are asked first, so the registry is
+     * only scanned for a format this thread has not read before. Hand the reader back
+     * with {@link #release} once the image is read.
+     * @return the reader, or null if no reader understands the image
+     */
+    public ImageReader getReader(ImageInputStream iis) throws IOException {
+        for (ImageReader reader : readers) {
+            ImageReaderSpi provider = reader.getOriginatingProvider();
+            if (provider != null && provider.canDecodeInput(iis)) {
+                reader.setInput(iis, true, true);
+                return reader;
+            }
+        }
+        Iterator<ImageReader> found = ImageIO.getImageReaders(iis);
+        if (!found.hasNext()) {
+            return null;
+        }
+        ImageReader reader = found.next();
+        readers.add(reader);
+        reader.setInput(iis, true, true);
+        return reader;
+    }
+
+    /**
+     * Detaches the reader from its input so it can read the next image
+     */
+    public void release(ImageReader reader) {
+        reader.reset();
+    }
+
+    /**
+     * A writer with its parameters set up for explicit compression at the format's
+     * first compression type; only the quality changes between images
+     */
+    private static final class PooledWriter {
+        private final ImageWriter writer;
+        private final ImageWriteParam param;
+
+        private PooledWriter(ImageWriter writer) {
+            this.writer = writer;
+            this.param = writer.getDefaultWriteParam();
+            if (param.canWriteCompressed()) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                String[] compressionTypes = param.getCompressionTypes();
+                if (compressionTypes != null && compressionTypes.length > 0) {
+                    param.setCompressionType(compressionTypes[0]);
+                }
+            }
+        }
+    }
+}
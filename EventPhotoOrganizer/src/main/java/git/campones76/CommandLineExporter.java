@@ -0,0 +1,713 @@
+package git.campones76;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Headless batch mode: runs the same export as the "Organize Photos & Generate HTML"
+ * button from the command line, for scripted builds on servers without a display.
+ * <p>
+ * Exit codes: 0 success, 1 export failed, 2 invalid arguments, 3 no photos found.
+ */
+public class CommandLineExporter {
+    public static final int EXIT_OK = 0;
+    public static final int EXIT_FAILED = 1;
+    public static final int EXIT_USAGE = 2;
+    public static final int EXIT_NO_PHOTOS = 3;
+
+    private static final String USAGE = String.join("\n",
+            "Usage: EventPhotoOrganizer --cli [options] --output <dir> (--source <dir> | --file-list <file> | <photo>...)",
+            "       EventPhotoOrganizer --cli [options] --queue <file>",
+            "",
+            "Event details:",
+            "  --event <name>           event name (required)",
+            "  --date <YYYY-MM-DD>      event date (required)",
+            "  --photographer <name>    photographer credit (required)",
+            "  --venue <name>           venue",
+            "  --location <place>       location",
+            "",
+            "Input and output:",
+            "  --output <dir>           folder the event folder is created in (required)",
+            "  --source <dir>           import every supported image in a folder",
+            "  --file-list <file>       import the photos listed in a text file, one path per line",
+            "  --queue <file>           export several events at the same time: each line holds the",
+            "                           options of one event (quote values with spaces), added to",
+            "                           the options on the command line; --workers and",
+            "                           --memory-budget are shared by all events",
+            "  --priority <n>           in a queue line: events with a higher priority get the",
+            "                           workers first (default 0)",
+            "",
+            "Export settings:",
+            "  --quality <0-100>        thumbnail compression quality (default 85)",
+            "  --target-size <KB>       fit each main-size thumbnail to this many KB by searching",
+            "                           for its quality, instead of using --quality; ladder",
+            "                           sizes get it scaled by their area",
+            "  --size <size>            mosaic (default), fit:<W>x<H>, long:<px> or percent:<n>",
+            "  --transfer <mode>        copy (default), hardlink or reflink",
+            "  --workers <n>            photos processed at the same time (default: cores)",
+            "  --memory-budget <MB>     decoded pixels held at the same time (default: half the heap)",
+            "  --thumbnail-cache <MB>   size cap of the thumbnail cache shared by all exports",
+            "                           (default 1024, off to disable)",
+            "  --thumbnail-cache-dir <dir>  cache folder (default ~/.eventphotoorganizer/thumbnail-cache)",
+            "  --libraries <mode>       cdn (default), or bundled: copy jQuery and nanogallery2 into the",
+            "                           gallery and write .gz copies of every text file",
+            "  --near-duplicates <bits> report photos whose perceptual hashes differ by at most this",
+            "                           many bits in near-duplicates.txt (default 6, off to skip)",
+            "  --order <order>          selection (default), or capture-time: number photos by Exif",
+            "                           DateTimeOriginal",
+            "  --camera-offset <c>=<s>  seconds added to one camera body's capture times, such as",
+            "                           \"Canon EOS R5 #0123=-42\"; repeat for more bodies",
+            "  --list-cameras           print the camera bodies found in the photos and exit",
+            "  --serve <port>           after exporting, serve the gallery on localhost (0: any port)",
+            "                           until stopped, and print request latencies on exit",
+            "  --help                   show this help");
+
+    // Options that take a value and describe one export
+    private static final Set<String> EXPORT_OPTIONS = Set.of("event", "date", "photographer", "venue",
+            "location", "output", "source", "file-list", "quality", "target-size", "size", "transfer",
+            "workers", "memory-budget", "thumbnail-cache", "thumbnail-cache-dir", "libraries",
+            "near-duplicates", "order");
+    private static final Set<String> SINGLE_OPTIONS = union(EXPORT_OPTIONS, "serve", "list-cameras");
+    private static final Set<String> QUEUE_OPTIONS = union(EXPORT_OPTIONS, "queue");
+    // Workers and the memory budget belong to the whole queue, not to one of its lines
+    private static final Set<String> QUEUE_LINE_OPTIONS = union(without(EXPORT_OPTIONS, "workers", "memory-budget"),
+            "priority");
+    private static final Set<String> ALL_OPTIONS = union(SINGLE_OPTIONS, "queue", "priority");
+
+    private final PrintStream out;
+    private final PrintStream err;
+
+    public CommandLineExporter(PrintStream out, PrintStream err) {
+        this.out = out;
+        this.err = err;
+    }
+
+    /**
+     * Whether the arguments ask for batch mode instead of the Swing UI
+     */
+    public static boolean isCommandLine(String[] args) {
+        return args.length > 0 && ("--cli".equals(args[0]) || "--help".equals(args[0]));
+    }
+
+    public static void main(String[] args) {
+        System.exit(runHeadless(args));
+    }
+
+    /**
+     * Switches AWT to headless mode and runs an export
+     * @return the process exit code
+     */
+    public static int runHeadless(String[] args) {
+        // Must be set before any AWT class is initialised
+        System.setProperty("java.awt.headless", "true");
+        return new CommandLineExporter(System.out, System.err).run(args);
+    }
+
+    /**
+     * Parses the arguments and runs the export
+     * @return the process exit code
+     */
+    public int run(String[] args) {
+        Arguments arguments;
+        try {
+            arguments = Arguments.parse(args);
+        } catch (IllegalArgumentException e) {
+            return usageError(e.getMessage());
+        }
+        if (arguments.help) {
+            out.println(USAGE);
+            return EXIT_OK;
+        }
+        if (arguments.values.containsKey("queue")) {
+            return runQueue(args, new File(arguments.values.get("queue")));
+        }
+        Event event;
+        try {
+            arguments.checkOptions(SINGLE_OPTIONS, "outside a queue file");
+            event = prepare(arguments);
+        } catch (IllegalArgumentException e) {
+            return usageError(e.getMessage());
+        } catch (IOException e) {
+            err.println("Could not read input: " + e.getMessage());
+            return EXIT_NO_PHOTOS;
+        }
+        if (event.photos.isEmpty()) {
+            err.println("No photos found");
+            return EXIT_NO_PHOTOS;
+        }
+        if (arguments.listCameras) {
+            return listCameras(event.photos);
+        }
+
+        int serverPort = -1;
+        if (arguments.values.containsKey("serve")) {
+            try {
+                serverPort = parseInt(arguments.values.get("serve"), "--serve");
+            } catch (IllegalArgumentException e) {
+                return usageError(e.getMessage());
+            }
+        }
+
+        int result = export(event.photos, event.metadata, event.options, event.baseDir);
+        if (result != EXIT_OK || serverPort < 0) {
+            return result;
+        }
+        return serve(new File(event.baseDir, event.metadata.getFolderName()), serverPort);
+    }
+
+    /**
+     * Validates the event details and options and collects the photos of one export
+     * @throws IllegalArgumentException if an argument is missing or invalid
+     * @throws IOException if the photos cannot be listed
+     */
+    private static Event prepare(Arguments arguments) throws IOException {
+        Map<String, String> values = arguments.values;
+        EventMetadata metadata = new EventMetadata(
+                values.getOrDefault("event", "").trim(),
+                values.getOrDefault("venue", "").trim(),
+                values.getOrDefault("location", "").trim(),
+                values.getOrDefault("date", "").trim(),
+                values.getOrDefault("photographer", "").trim());
+        if (!metadata.isValid()) {
+            throw new IllegalArgumentException("--event, --date and --photographer are required");
+        }
+        if (!values.containsKey("output")) {
+            throw new IllegalArgumentException("--output is required");
+        }
+
+        ExportOptions options = new ExportOptions();
+        applyOptions(values, options);
+        options.setCameraOffsets(parseCameraOffsets(arguments.cameraOffsets));
+        return new Event(metadata, options, collectPhotos(values, arguments.files), new File(values.get("output")));
+    }
+
+    /**
+     * Exports every event listed in queueFile at the same time on one set of workers.
+     * Each line holds the arguments of one event and is added to the command line
+     * arguments, so settings shared by all events can be given once on the command line.
+     */
+    private int runQueue(String[] args, File queueFile) {
+        List<String> common = new ArrayList<>(Arrays.asList(args));
+        int queueIndex = common.indexOf("--queue");
+        common.subList(queueIndex, queueIndex + 2).clear();
+        ExportOptions queueOptions = new ExportOptions();
+        List<String> lines;
+        try {
+            Arguments commonArguments = Arguments.parse(common.toArray(new String[0]));
+            commonArguments.checkOptions(QUEUE_OPTIONS, "with --queue");
+            applyOptions(commonArguments.values, queueOptions);
+            lines = Files.readAllLines(queueFile.toPath(), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return usageError(e.getMessage());
+        } catch (IOException e) {
+            err.println("Could not read input: " + e.getMessage());
+            return EXIT_NO_PHOTOS;
+        }
+
+        List<Event> events = new ArrayList<>();
+        List<Integer> priorities = new ArrayList<>();
+        Set<File> destDirs = new HashSet<>();
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String where = "Line " + (i + 1) + " of " + queueFile.getName() + ": ";
+            List<String> eventArgs = new ArrayList<>(common);
+            try {
+                List<String> lineArgs = splitArguments(line);
+                Arguments.parse(lineArgs.toArray(new String[0])).checkOptions(QUEUE_LINE_OPTIONS, "in a queue line");
+                eventArgs.addAll(lineArgs);
+                Arguments arguments = Arguments.parse(eventArgs.toArray(new String[0]));
+                Event event = prepare(arguments);
+                if (event.photos.isEmpty()) {
+                    err.println(where + "no photos found");
+                    return EXIT_NO_PHOTOS;
+                }
+                if (!destDirs.add(new File(event.baseDir, event.metadata.getFolderName()).getAbsoluteFile())) {
+                    return usageError(where + "same event folder as an earlier line");
+                }
+                events.add(event);
+                priorities.add(arguments.values.containsKey("priority")
+                        ? parseInt(arguments.values.get("priority"), "--priority") : 0);
+            } catch (IllegalArgumentException e) {
+                return usageError(where + e.getMessage());
+            } catch (IOException e) {
+                err.println(where + "could not read input: " + e.getMessage());
+                return EXIT_NO_PHOTOS;
+            }
+        }
+        if (events.isEmpty()) {
+            err.println("No events in " + queueFile.getPath());
+            return EXIT_NO_PHOTOS;
+        }
+
+        ExportQueue queue = new ExportQueue(queueOptions.getWorkerCount(), queueOptions.createMemoryBudget());
+        out.printf("Exporting %d events with %d workers%n", events.size(), queue.getWorkerCount());
+        Map<ExportQueue.Entry, AtomicInteger> lastPercents = new ConcurrentHashMap<>();
+        queue.addListener(entry -> printQueueProgress(queue, entry, lastPercents));
+        long start = System.nanoTime();
+        for (int i = 0; i < events.size(); i++) {
+            Event event = events.get(i);
+            ExportJob job = new ExportJob(event.photos, event.metadata, event.options);
+            int resumable = job.getResumableCount(event.baseDir);
+            if (resumable > 0) {
+                out.printf("%s: resuming an interrupted export, %d photos already done%n",
+                        event.metadata.getFolderName(), resumable);
+            }
+            queue.submit(job, event.baseDir, priorities.get(i));
+        }
+        try {
+            queue.awaitAll();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            err.println("Export interrupted");
+            return EXIT_FAILED;
+        }
+
+        int failed = 0;
+        ThumbnailCache thumbnailCache = null;
+        for (ExportQueue.Entry entry : queue.getEntries()) {
+            if (entry.getState() != ExportQueue.State.DONE) {
+                failed++;
+            } else if (entry.getJob().getThumbnailCache() != null) {
+                thumbnailCache = entry.getJob().getThumbnailCache();
+            }
+        }
+        out.printf("Queue done in %.1f s: %d of %d events exported%n", (System.nanoTime() - start) / 1e9,
+                events.size() - failed, events.size());
+        out.println("Decode memory: " + queue.getMemoryBudget().getSummary());
+        if (thumbnailCache != null) {
+            out.println("Thumbnail cache: " + thumbnailCache.getSummary());
+        }
+        return failed == 0 ? EXIT_OK : EXIT_FAILED;
+    }
+
+    /**
+     * Prints an event's progress every 10%, and its result once it ends
+     */
+    private void printQueueProgress(ExportQueue queue, ExportQueue.Entry entry,
+                                    Map<ExportQueue.Entry, AtomicInteger> lastPercents) {
+        String name = entry.getDestDir().getName();
+        switch (entry.getState()) {
+            case DONE:
+                out.printf("%s: done in %.1f s, %s%n", name, entry.getElapsedNanos() / 1e9,
+                        new File(entry.getDestDir(), "index.html").getAbsolutePath());
+                return;
+            case FAILED:
+                err.printf("%s: error processing photos: %s%n", name, entry.getFailure().getMessage());
+                return;
+            case CANCELLED:
+                out.printf("%s: cancelled%n", name);
+                return;
+            default:
+                break;
+        }
+        int percent = entry.getCompletedSteps() * 10 / Math.max(1, entry.getTotalSteps()) * 10;
+        AtomicInteger lastPercent = lastPercents.computeIfAbsent(entry, e -> new AtomicInteger(-1));
+        int previous = lastPercent.get();
+        // Print each step once, whichever worker reaches it first
+        if (percent > previous && lastPercent.compareAndSet(previous, percent)) {
+            out.printf("%s: %3d%% (photo %d of %d), all events %3d%%%n", name, percent,
+                    (entry.getCompletedSteps() + 1) / 2, entry.getJob().getPhotoCount(),
+                    queue.getCompletedSteps() * 100 / Math.max(1, queue.getTotalSteps()));
+        }
+    }
+
+    /**
+     * Splits a line of a queue file into arguments at spaces; single or double quotes
+     * keep spaces inside an argument
+     */
+    static List<String> splitArguments(String line) {
+        List<String> arguments = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean inArgument = false;
+        char quote = 0;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                } else {
+                    current.append(c);
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+                inArgument = true;
+            } else if (Character.isWhitespace(c)) {
+                if (inArgument) {
+                    arguments.add(current.toString());
+                    current.setLength(0);
+                    inArgument = false;
+                }
+            } else {
+                current.append(c);
+                inArgument = true;
+            }
+        }
+        if (quote != 0) {
+            throw new IllegalArgumentException("Unclosed quote");
+        }
+        if (inArgument) {
+            arguments.add(current.toString());
+        }
+        return arguments;
+    }
+
+    private int listCameras(List<File> photos) {
+        try {
+            for (Map.Entry<String, Integer> camera : CaptureOrder.findCameras(photos).entrySet()) {
+                out.println(camera.getKey() + "\t" + camera.getValue() + " photo(s)");
+            }
+            return EXIT_OK;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return EXIT_FAILED;
+        }
+    }
+
+    /**
+     * Serves the gallery until the process is stopped
+     */
+    private int serve(File galleryDir, int port) {
+        PreviewServer server = new PreviewServer(galleryDir, port);
+        try {
+            server.start();
+        } catch (IOException e) {
+            err.println("Could not start the preview server: " + e.getMessage());
+            return EXIT_FAILED;
+        }
+        out.println("Serving " + server.getUri() + " (latency at " + server.getUri().resolve(
+                PreviewServer.STATS_PATH.substring(1)) + "), press Ctrl+C to stop");
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            out.println("Request latency: " + server.getLatencies().getSummary());
+        }));
+        try {
+            Thread.currentThread().join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return EXIT_OK;
+    }
+
+    private int export(List<File> photos, EventMetadata metadata, ExportOptions options, File baseDir) {
+        ExportJob job = new ExportJob(photos, metadata, options);
+        int totalSteps = job.getTotalSteps();
+        out.printf("Exporting %d photos to %s (quality %s, size %s, %d workers)%n", photos.size(),
+                job.getDestDir(baseDir).getAbsolutePath(), ExportJob.describeQuality(options),
+                options.getThumbnailSize(),
+                options.getWorkerCount());
+
+        int resumable = job.getResumableCount(baseDir);
+        if (resumable > 0) {
+            out.printf("Resuming an interrupted export: %d photos already done%n", resumable);
+        }
+
+        AtomicInteger lastPercent = new AtomicInteger(-1);
+        long start = System.nanoTime();
+        try {
+            File destDir = job.run(baseDir, completedSteps -> {
+                int percent = completedSteps * 100 / Math.max(1, totalSteps);
+                int previous = lastPercent.get();
+                // Print each percentage once, whichever worker reaches it first
+                if (percent > previous && lastPercent.compareAndSet(previous, percent)) {
+                    out.printf("Progress: %3d%% (photo %d of %d)%n", percent,
+                            (completedSteps + 1) / 2, photos.size());
+                }
+            });
+            out.printf("Done in %.1f s: %s%n", (System.nanoTime() - start) / 1e9,
+                    new File(destDir, "index.html").getAbsolutePath());
+            out.println("Originals: " + job.getTransferSummary());
+            out.println("Decode memory: " + job.getMemoryBudget().getSummary());
+            if (job.getThumbnailBudgetSummary() != null) {
+                out.println("Thumbnail budget: " + job.getThumbnailBudgetSummary());
+            }
+            if (job.getThumbnailCache() != null) {
+                out.println("Thumbnail cache: " + job.getThumbnailCache().getSummary());
+            }
+            out.println("Stage timings: " + new File(destDir, StageStats.REPORT_FILE_NAME).getPath());
+            if (job.getReusedCount() > 0) {
+                out.println("Unchanged photos reused: " + job.getReusedCount());
+            }
+            NearDuplicateReport nearDuplicates = job.getNearDuplicates();
+            if (nearDuplicates != null && nearDuplicates.getClusterCount() > 0) {
+                out.printf("Near-duplicates: %d photos in %d clusters, see %s%n", nearDuplicates.getPhotoCount(),
+                        nearDuplicates.getClusterCount(), new File(destDir, NearDuplicateReport.FILE_NAME).getPath());
+            }
+            return EXIT_OK;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            err.println("Export interrupted");
+            return EXIT_FAILED;
+        } catch (Exception e) {
+            err.println("Error processing photos: " + e.getMessage());
+            return EXIT_FAILED;
+        }
+    }
+
+    private static void applyOptions(Map<String, String> values, ExportOptions options) {
+        if (values.containsKey("quality")) {
+            int quality = parseInt(values.get("quality"), "--quality");
+            if (quality < 0 || quality > 100) {
+                throw new IllegalArgumentException("--quality must be between 0 and 100");
+            }
+            options.setQuality(quality);
+        }
+        if (values.containsKey("target-size")) {
+            int kilobytes = parseInt(values.get("target-size"), "--target-size");
+            if (kilobytes <= 0) {
+                throw new IllegalArgumentException("--target-size must be positive");
+            }
+            options.setThumbnailTargetBytes(kilobytes * 1024);
+        }
+        if (values.containsKey("size")) {
+            options.setThumbnailSize(parseSize(values.get("size")));
+        }
+        if (values.containsKey("transfer")) {
+            try {
+                options.setTransferMode(FileTransfer.Mode.valueOf(values.get("transfer").toUpperCase(Locale.ROOT)));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("--transfer must be copy, hardlink or reflink");
+            }
+        }
+        if (values.containsKey("workers")) {
+            options.setWorkerCount(parseInt(values.get("workers"), "--workers"));
+        }
+        if (values.containsKey("near-duplicates")) {
+            String value = values.get("near-duplicates");
+            options.setNearDuplicateDistance("off".equalsIgnoreCase(value) ? -1 : parseInt(value, "--near-duplicates"));
+        }
+        if (values.containsKey("libraries")) {
+            try {
+                options.setLibraryMode(VendorLibraries.Mode.valueOf(values.get("libraries").toUpperCase(Locale.ROOT)));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("--libraries must be cdn or bundled");
+            }
+        }
+        if (values.containsKey("thumbnail-cache")) {
+            String value = values.get("thumbnail-cache");
+            int megabytes = "off".equalsIgnoreCase(value) ? 0 : parseInt(value, "--thumbnail-cache");
+            if (megabytes < 0) {
+                throw new IllegalArgumentException("--thumbnail-cache must not be negative");
+            }
+            options.setThumbnailCacheBytes(megabytes * 1024L * 1024L);
+        }
+        if (values.containsKey("thumbnail-cache-dir")) {
+            options.setThumbnailCacheDir(new File(values.get("thumbnail-cache-dir")));
+        }
+        if (values.containsKey("order")) {
+            String order = values.get("order").toLowerCase(Locale.ROOT);
+            if ("selection".equals(order)) {
+                options.setPhotoOrder(CaptureOrder.Mode.SELECTION);
+            } else if ("capture-time".equals(order)) {
+                options.setPhotoOrder(CaptureOrder.Mode.CAPTURE_TIME);
+            } else {
+                throw new IllegalArgumentException("--order must be selection or capture-time");
+            }
+        }
+        if (values.containsKey("memory-budget")) {
+            int megabytes = parseInt(values.get("memory-budget"), "--memory-budget");
+            if (megabytes <= 0) {
+                throw new IllegalArgumentException("--memory-budget must be positive");
+            }
+            options.setMemoryBudgetBytes(megabytes * 1024L * 1024L);
+        }
+    }
+
+    /**
+     * Parses "camera=seconds" values; the camera name may itself contain '='
+     * @return milliseconds by camera
+     */
+    static Map<String, Long> parseCameraOffsets(List<String> values) {
+        Map<String, Long> offsets = new HashMap<>();
+        for (String value : values) {
+            int separator = value.lastIndexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Invalid --camera-offset, expected <camera>=<seconds>: " + value);
+            }
+            try {
+                double seconds = Double.parseDouble(value.substring(separator + 1).trim());
+                offsets.put(value.substring(0, separator).trim(), Math.round(seconds * 1000));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid seconds for --camera-offset: " + value);
+            }
+        }
+        return offsets;
+    }
+
+    static ThumbnailSize parseSize(String value) {
+        String lower = value.toLowerCase(Locale.ROOT);
+        if ("mosaic".equals(lower)) {
+            return ThumbnailSize.forGalleryMosaic();
+        }
+        if (lower.startsWith("fit:")) {
+            String[] dims = lower.substring(4).split("x");
+            if (dims.length == 2) {
+                return ThumbnailSize.fitWithin(parseInt(dims[0], "--size"), parseInt(dims[1], "--size"));
+            }
+        } else if (lower.startsWith("long:")) {
+            return ThumbnailSize.longEdge(parseInt(lower.substring(5), "--size"));
+        } else if (lower.startsWith("percent:")) {
+            return ThumbnailSize.percentOfOriginal(parseInt(lower.substring(8), "--size"));
+        }
+        throw new IllegalArgumentException("Invalid --size: " + value);
+    }
+
+    private static int parseInt(String value, String option) {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number for " + option + ": " + value);
+        }
+    }
+
+    private static List<File> collectPhotos(Map<String, String> values, List<String> files) throws IOException {
+        List<File> photos = new ArrayList<>();
+        if (values.containsKey("source")) {
+            File sourceDir = new File(values.get("source"));
+            File[] entries = sourceDir.listFiles((dir, name) -> FileUtils.isSupportedImage(name));
+            if (entries == null) {
+                throw new IOException("Not a folder: " + sourceDir.getPath());
+            }
+            // Directory listings are unordered; sort so numbering is repeatable
+            Arrays.sort(entries);
+            Collections.addAll(photos, entries);
+        }
+        if (values.containsKey("file-list")) {
+            for (String line : Files.readAllLines(new File(values.get("file-list")).toPath(), StandardCharsets.UTF_8)) {
+                if (!line.trim().isEmpty() && !line.startsWith("#")) {
+                    files.add(line.trim());
+                }
+            }
+        }
+        for (String path : files) {
+            File file = new File(path);
+            if (!file.isFile()) {
+                throw new IOException("Not a file: " + path);
+            }
+            photos.add(file);
+        }
+        return photos;
+    }
+
+    private int usageError(String message) {
+        err.println(message);
+        err.println();
+        err.println(USAGE);
+        return EXIT_USAGE;
+    }
+
+    /**
+     * Command line arguments sorted into option values, photo paths and flags
+     */
+    private static final class Arguments {
+        private final Map<String, String> values = new HashMap<>();
+        private final List<String> files = new ArrayList<>();
+        private final List<String> cameraOffsets = new ArrayList<>();
+        private boolean listCameras;
+        private boolean help;
+
+        /**
+         * @throws IllegalArgumentException if an option is missing its value
+         */
+        static Arguments parse(String[] args) {
+            Arguments arguments = new Arguments();
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if ("--cli".equals(arg)) {
+                    continue;
+                }
+                if ("--help".equals(arg)) {
+                    arguments.help = true;
+                    return arguments;
+                }
+                if ("--list-cameras".equals(arg)) {
+                    arguments.listCameras = true;
+                    continue;
+                }
+                if ("--camera-offset".equals(arg)) {
+                    if (i + 1 >= args.length) {
+                        throw new IllegalArgumentException("Missing value for " + arg);
+                    }
+                    arguments.cameraOffsets.add(args[++i]);
+                    continue;
+                }
+                if (arg.startsWith("--")) {
+                    if (i + 1 >= args.length) {
+                        throw new IllegalArgumentException("Missing value for " + arg);
+                    }
+                    arguments.values.put(arg.substring(2), args[++i]);
+                } else {
+                    arguments.files.add(arg);
+                }
+            }
+            return arguments;
+        }
+
+        /**
+         * @param allowed options accepted here, by name without the dashes
+         * @param where where the arguments came from, for the error message
+         * @throws IllegalArgumentException for a misspelled option, or one that does
+         *         not apply here
+         */
+        void checkOptions(Set<String> allowed, String where) {
+            List<String> given = new ArrayList<>(values.keySet());
+            if (listCameras) {
+                given.add("list-cameras");
+            }
+            Collections.sort(given);
+            for (String option : given) {
+                if (!ALL_OPTIONS.contains(option)) {
+                    throw new IllegalArgumentException("Unknown option: --" + option);
+                }
+                if (!allowed.contains(option)) {
+                    throw new IllegalArgumentException("--" + option + " cannot be used " + where);
+                }
+            }
+        }
+    }
+
+    private static Set<String> union(Set<String> options, String... more) {
+        Set<String> result = new HashSet<>(options);
+        Collections.addAll(result, more);
+        return Collections.unmodifiableSet(result);
+    }
+
+    private static Set<String> without(Set<String> options, String... removed) {
+        Set<String> result = new HashSet<>(options);
+        result.removeAll(Arrays.asList(removed));
+        return Collections.unmodifiableSet(result);
+    }
+
+    /**
+     * The validated details, settings and photos of one export
+     */
+    private static final class Event {
+        private final EventMetadata metadata;
+        private final ExportOptions options;
+        private final List<File> photos;
+        private final File baseDir;
+
+        private Event(EventMetadata metadata, ExportOptions options, List<File> photos, File baseDir) {
+            this.metadata = metadata;
+            this.options = options;
+            this.photos = photos;
+            this.baseDir = baseDir;
+        }
+    }
+}
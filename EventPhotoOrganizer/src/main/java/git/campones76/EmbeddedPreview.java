@@ -0,0 +1,218 @@
+package git.campones76;
+
+import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Locates JPEG previews that cameras embed in their files: the Exif thumbnail in IFD1
+ * and the larger previews listed in the Multi-Picture Format (MPF) index.
+ * Only marker segments and the previews' own headers are read; nothing is decoded.
+ */
+public class EmbeddedPreview {
+    private static final int TAG_JPEG_OFFSET = 0x0201;
+    private static final int TAG_JPEG_LENGTH = 0x0202;
+    private static final int TAG_MP_ENTRY = 0xB002;
+    private static final int MP_ENTRY_SIZE = 16;
+    // Previews whose aspect ratio differs more than this are letterboxed; skip them
+    private static final double ASPECT_TOLERANCE = 0.02;
+
+    private final int sourceWidth;
+    private final int sourceHeight;
+    private final long offset;
+    private final int length;
+    private final int width;
+    private final int height;
+
+    private EmbeddedPreview(int sourceWidth, int sourceHeight, long offset, int length,
+                            int width, int height) {
+        this.sourceWidth = sourceWidth;
+        this.sourceHeight = sourceHeight;
+        this.offset = offset;
+        this.length = length;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Finds the largest usable embedded preview of a JPEG file
+     * @return the preview, or null if the file is not a JPEG or has no preview with the
+     *         same aspect ratio as the main image
+     * @throws IOException if the file cannot be read or its metadata is malformed
+     */
+    public static EmbeddedPreview find(File sourceFile) throws IOException {
+        JpegHeader header = JpegHeader.read(sourceFile);
+        List<long[]> candidates = getCandidates(header);
+        if (candidates.isEmpty()) {
+            return null;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(sourceFile, "r")) {
+            FileChannel channel = raf.getChannel();
+            return findLargest(header, candidates, channel.size(), offset -> {
+                channel.position(offset);
+                return Channels.newInputStream(channel);
+            });
+        }
+    }
+
+    /**
+     * Like {@link #find(File)}, for a JPEG already read into memory
+     * @param content the whole file, from position 0; not modified
+     */
+    public static EmbeddedPreview find(ByteBuffer content) throws IOException {
+        JpegHeader header = JpegHeader.read(SourceBuffer.inputStream(content), false);
+        List<long[]> candidates = getCandidates(header);
+        if (candidates.isEmpty()) {
+            return null;
+        }
+        return findLargest(header, candidates, content.limit(),
+                offset -> SourceBuffer.inputStream(content.duplicate().position((int) offset)));
+    }
+
+    /**
+     * Offsets and lengths of the previews the header lists, empty if it is not a JPEG
+     */
+    private static List<long[]> getCandidates(JpegHeader header) throws IOException {
+        List<long[]> candidates = new ArrayList<>();
+        if (header == null || header.getWidth() <= 0 || header.getHeight() <= 0) {
+            return candidates;
+        }
+        if (header.getExifData() != null) {
+            addExifThumbnail(header, candidates);
+        }
+        if (header.getMpfData() != null) {
+            addMultiPictureEntries(header, candidates);
+        }
+        return candidates;
+    }
+
+    private static EmbeddedPreview findLargest(JpegHeader header, List<long[]> candidates, long fileSize,
+                                               StreamOpener opener) {
+        EmbeddedPreview largest = null;
+        for (long[] candidate : candidates) {
+            long candidateOffset = candidate[0];
+            int candidateLength = (int) candidate[1];
+            if (candidateOffset <= 0 || candidateLength <= 0
+                    || candidateOffset + candidateLength > fileSize) {
+                continue;
+            }
+
+            JpegHeader previewHeader;
+            try {
+                previewHeader = JpegHeader.read(opener.openAt(candidateOffset), false);
+            } catch (IOException e) {
+                // A broken preview is not fatal, the others may still be usable
+                continue;
+            }
+            if (previewHeader == null || previewHeader.getWidth() <= 0 || previewHeader.getHeight() <= 0
+                    || !hasSameAspect(previewHeader, header)) {
+                continue;
+            }
+            if (largest == null || previewHeader.getWidth() > largest.width) {
+                largest = new EmbeddedPreview(header.getWidth(), header.getHeight(),
+                        candidateOffset, candidateLength,
+                        previewHeader.getWidth(), previewHeader.getHeight());
+            }
+        }
+        return largest;
+    }
+
+    private static void addExifThumbnail(JpegHeader header, List<long[]> candidates)
+            throws IOException {
+        TiffReader tiff = new TiffReader(header.getExifData());
+        TiffReader.Ifd ifd0 = tiff.readIfd(tiff.getFirstIfdOffset());
+        if (ifd0.getNextIfdOffset() <= 0) {
+            return;
+        }
+        TiffReader.Ifd ifd1 = tiff.readIfd(ifd0.getNextIfdOffset());
+        TiffReader.Entry offsetEntry = ifd1.get(TAG_JPEG_OFFSET);
+        TiffReader.Entry lengthEntry = ifd1.get(TAG_JPEG_LENGTH);
+        if (offsetEntry != null && lengthEntry != null) {
+            candidates.add(new long[]{header.getExifOffset() + tiff.getNumber(offsetEntry),
+                    tiff.getNumber(lengthEntry)});
+        }
+    }
+
+    private static void addMultiPictureEntries(JpegHeader header, List<long[]> candidates)
+            throws IOException {
+        TiffReader tiff = new TiffReader(header.getMpfData());
+        TiffReader.Ifd index = tiff.readIfd(tiff.getFirstIfdOffset());
+        TiffReader.Entry entries = index.get(TAG_MP_ENTRY);
+        if (entries == null) {
+            return;
+        }
+
+        // Each MP entry: attributes, size, offset from the MPF TIFF header, two dependents
+        int start = entries.getValueOffset();
+        for (int i = 0; i + MP_ENTRY_SIZE <= entries.getCount(); i += MP_ENTRY_SIZE) {
+            long size = tiff.readUnsigned(start + i + 4, 4);
+            long dataOffset = tiff.readUnsigned(start + i + 8, 4);
+            // Offset 0 is the primary image itself
+            if (dataOffset > 0) {
+                candidates.add(new long[]{header.getMpfOffset() + dataOffset, size});
+            }
+        }
+    }
+
+    private static boolean hasSameAspect(JpegHeader preview, JpegHeader source) {
+        double previewAspect = (double) preview.getWidth() / preview.getHeight();
+        double sourceAspect = (double) source.getWidth() / source.getHeight();
+        return Math.abs(previewAspect - sourceAspect) <= sourceAspect * ASPECT_TOLERANCE;
+    }
+
+    /**
+     * Whether this preview has enough pixels to produce a thumbnail of the given size
+     */
+    public boolean covers(Dimension target) {
+        return width >= target.width && height >= target.height;
+    }
+
+    /**
+     * Reads the preview's JPEG bytes from the source file
+     */
+    public byte[] readData(File sourceFile) throws IOException {
+        byte[] data = new byte[length];
+        try (RandomAccessFile raf = new RandomAccessFile(sourceFile, "r")) {
+            raf.seek(offset);
+            raf.readFully(data);
+        }
+        return data;
+    }
+
+    /**
+     * The preview's JPEG bytes within a file already read into memory, without copying
+     */
+    public ByteBuffer getData(ByteBuffer content) {
+        return content.duplicate().position((int) offset).limit((int) (offset + length)).slice();
+    }
+
+    public int getSourceWidth() {
+        return sourceWidth;
+    }
+
+    public int getSourceHeight() {
+        return sourceHeight;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Opens a stream at an offset of the source
+     */
+    private interface StreamOpener {
+        InputStream openAt(long offset) throws IOException;
+    }
+}
@@ -0,0 +1,95 @@
+package git.campones76;
+
+import javax.imageio.stream.ImageOutputStreamImpl;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * In-memory ImageIO output that is reused from one encoded image to the next. Writers
+ * encode straight into its array, which grows to the largest image and is then kept,
+ * so encoding a thumbnail allocates no output chunks or copies. Not closed between
+ * images: call {@link #clear} before each one instead. The inherited mark and reset
+ * keep their ImageIO meaning, which writers rely on when they patch headers.
+ */
+public class EncodeBuffer extends ImageOutputStreamImpl {
+    private byte[] data;
+    private int length;
+
+    public EncodeBuffer(int initialCapacity) {
+        data = new byte[Math.max(16, initialCapacity)];
+    }
+
+    /**
+     * Empties the buffer for the next image, keeping its capacity
+     */
+    public void clear() {
+        streamPos = 0;
+        flushedPos = 0;
+        bitOffset = 0;
+        length = 0;
+    }
+
+    /**
+     * Number of bytes written
+     */
+    public int size() {
+        return length;
+    }
+
+    /**
+     * Copies the written bytes to out
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(data, 0, length);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        flushBits();
+        ensureCapacity(streamPos + 1);
+        data[(int) streamPos++] = (byte) b;
+        length = Math.max(length, (int) streamPos);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        flushBits();
+        ensureCapacity(streamPos + len);
+        System.arraycopy(b, off, data, (int) streamPos, len);
+        streamPos += len;
+        length = Math.max(length, (int) streamPos);
+    }
+
+    @Override
+    public int read() throws IOException {
+        bitOffset = 0;
+        return streamPos < length ? data[(int) streamPos++] & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        bitOffset = 0;
+        if (streamPos >= length) {
+            return -1;
+        }
+        int count = Math.min(len, length - (int) streamPos);
+        System.arraycopy(data, (int) streamPos, b, off, count);
+        streamPos += count;
+        return count;
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    private void ensureCapacity(long needed) throws IOException {
+        if (needed > Integer.MAX_VALUE - 8) {
+            throw new IOException("Encoded image too large for memory");
+        }
+        if (needed > data.length) {
+            data = Arrays.copyOf(data, (int) Math.max(needed, Math.min(Integer.MAX_VALUE - 8, data.length * 2L)));
+        }
+    }
+}
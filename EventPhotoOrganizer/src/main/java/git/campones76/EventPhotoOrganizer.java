@@ -8,6 +8,7 @@ import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 import javax.sound.sampled.*;
 import java.io.InputStream;
 
@@ -18,8 +19,13 @@ public class EventPhotoOrganizer extends JFrame {
     private final EventDetailsPanel detailsPanel;
     private final PhotoSelectionPanel photoPanel;
     private final QualityControlPanel qualityPanel;
+    private final ExportOptionsPanel exportOptionsPanel;
     private final JLabel statusLabel;
     private final List<File> selectedPhotos;
+    private final PhotoImporter photoImporter = new PhotoImporter();
+    private SwingWorker<Void, File> importWorker;
+    private ExportQueue exportQueue;
+    private ExportQueueDialog exportQueueDialog;
     private Image backgroundImage;
 
     public EventPhotoOrganizer() {
@@ -27,6 +33,7 @@ public class EventPhotoOrganizer extends JFrame {
         detailsPanel = new EventDetailsPanel();
         photoPanel = new PhotoSelectionPanel();
         qualityPanel = new QualityControlPanel();
+        exportOptionsPanel = new ExportOptionsPanel();
         statusLabel = new JLabel(" ");
         loadBackgroundImage();
         initializeUI();
@@ -63,7 +70,7 @@ public class EventPhotoOrganizer extends JFrame {
 
     private void initializeUI() {
         setTitle("Web Gallery");
-        setSize(700, 780);
+        setSize(700, 960);
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 
         // Create custom content pane with background
@@ -120,6 +127,7 @@ public class EventPhotoOrganizer extends JFrame {
         // Photo selection panel
         photoPanel.setAlignmentX(CENTER_ALIGNMENT);
         photoPanel.setImportListener(() -> importPhotos());
+        photoPanel.setImportFolderListener(() -> importFolder());
         photoPanel.setClearListener(() -> clearPhotos());
         add(photoPanel);
         add(Box.createVerticalStrut(15));
@@ -127,13 +135,27 @@ public class EventPhotoOrganizer extends JFrame {
         // Quality control panel
         qualityPanel.setAlignmentX(CENTER_ALIGNMENT);
         add(qualityPanel);
+        add(Box.createVerticalStrut(10));
+
+        // Export options panel
+        exportOptionsPanel.setAlignmentX(CENTER_ALIGNMENT);
+        exportOptionsPanel.setPhotoSupplier(() -> new ArrayList<>(selectedPhotos));
+        add(exportOptionsPanel);
         add(Box.createVerticalStrut(15));
 
-        // Organize button
+        // Organize and queue buttons
         JButton organizeButton = new JButton("Organize Photos & Generate HTML");
-        organizeButton.setAlignmentX(CENTER_ALIGNMENT);
         organizeButton.addActionListener(e -> organizePhotos());
-        add(organizeButton);
+        JButton queueButton = new JButton("Add to Export Queue");
+        queueButton.setToolTipText("Export in the background alongside other events");
+        queueButton.addActionListener(e -> queueExport());
+        JPanel exportButtons = new JPanel(new FlowLayout(FlowLayout.CENTER, 10, 0));
+        exportButtons.setOpaque(false);
+        exportButtons.add(organizeButton);
+        exportButtons.add(queueButton);
+        exportButtons.setMaximumSize(new Dimension(600, 40));
+        exportButtons.setAlignmentX(CENTER_ALIGNMENT);
+        add(exportButtons);
 
         // Status label
         statusLabel.setAlignmentX(CENTER_ALIGNMENT);
@@ -201,22 +223,22 @@ public class EventPhotoOrganizer extends JFrame {
         String aboutMessage = """
                 Web Gallery
                 Version 1.3
-                
+
                 A very simple tool for organizing event photos and generating
                 beautiful HTML galleries with thumbnails.
                 I made this as a replacement for the web export feature of Apple Aperture.
-                
-                I made this little program specifically to cover my need to automate 
-                something I had to do manually, idk if it's of any use to you guys but 
+
+                I made this little program specifically to cover my need to automate
+                something I had to do manually, idk if it's of any use to you guys but
                 fell free to modify it to your liking.
-                
+
                 Features:
                 • Automatic photo organization
                 • Thumbnail generation (WebP format)
                 • Adjustable thumbnail quality
                 • Responsive HTML gallery creation
                 • Event metadata management
-                
+
                 © 2026 Gabe Fernando
                 """;
 
@@ -258,15 +280,84 @@ public class EventPhotoOrganizer extends JFrame {
 
     }
     private void importPhotos() {
+        if (isImporting()) {
+            return;
+        }
         List<File> files = photoPanel.selectPhotos(this);
         if (files != null && !files.isEmpty()) {
-            // Add to existing photos instead of replacing
-            selectedPhotos.addAll(files);
-            photoPanel.updatePhotoList(selectedPhotos);
-            statusLabel.setText(selectedPhotos.size() + " photo(s) selected");
+            // Add to existing photos instead of replacing, skipping duplicates
+            runImport(added -> {
+                for (File file : files) {
+                    if (photoImporter.offer(file)) {
+                        added.accept(file);
+                    }
+                }
+            }, false);
         }
     }
 
+    private void importFolder() {
+        if (isImporting()) {
+            return;
+        }
+        File folder = photoPanel.selectFolder(this);
+        if (folder != null && folder.isDirectory()) {
+            statusLabel.setText("Scanning " + folder.getName() + "...");
+            runImport(added -> photoImporter.importFolder(folder, added), true);
+        }
+    }
+
+    private boolean isImporting() {
+        return importWorker != null && !importWorker.isDone();
+    }
+
+    /**
+     * Runs an import in the background, adding photos to the list as they are found
+     * @param sortByPath put the imported photos in path order once the import finishes,
+     *                   since a parallel folder walk finds them in no particular order
+     */
+    private void runImport(Consumer<Consumer<File>> importer, boolean sortByPath) {
+        int firstIndex = selectedPhotos.size();
+        int duplicatesBefore = photoImporter.getDuplicateCount();
+        importWorker = new SwingWorker<Void, File>() {
+            @Override
+            protected Void doInBackground() {
+                importer.accept(file -> publish(file));
+                return null;
+            }
+
+            @Override
+            protected void process(List<File> chunks) {
+                if (isCancelled()) {
+                    return;
+                }
+                selectedPhotos.addAll(chunks);
+                photoPanel.appendPhotos(chunks);
+                statusLabel.setText(selectedPhotos.size() + " photo(s) selected, importing...");
+            }
+
+            @Override
+            protected void done() {
+                if (isCancelled()) {
+                    return;
+                }
+                try {
+                    get();
+                } catch (Exception e) {
+                    System.err.println("Import failed: " + e.getMessage());
+                }
+                if (sortByPath && firstIndex < selectedPhotos.size()) {
+                    selectedPhotos.subList(firstIndex, selectedPhotos.size()).sort(null);
+                    photoPanel.updatePhotoList(selectedPhotos);
+                }
+                int duplicates = photoImporter.getDuplicateCount() - duplicatesBefore;
+                statusLabel.setText(selectedPhotos.size() + " photo(s) selected"
+                        + (duplicates > 0 ? ", " + duplicates + " duplicate(s) skipped" : ""));
+            }
+        };
+        importWorker.execute();
+    }
+
     private void clearPhotos() {
         if (selectedPhotos.isEmpty()) {
             return;
@@ -292,6 +383,11 @@ public class EventPhotoOrganizer extends JFrame {
         );
 
         if (result == JOptionPane.YES_OPTION) {
+            if (isImporting()) {
+                photoImporter.cancel();
+                importWorker.cancel(false);
+            }
+            photoImporter.clear();
             selectedPhotos.clear();
             photoPanel.clearPhotoList();
             statusLabel.setText("All photos cleared");
@@ -302,35 +398,29 @@ public class EventPhotoOrganizer extends JFrame {
     }
 
     private void organizePhotos() {
-        if (selectedPhotos.isEmpty()) {
-            JOptionPane.showMessageDialog(this,
-                    "Please import photos first!",
-                    "No Photos",
-                    JOptionPane.WARNING_MESSAGE);
-            return;
-        }
-
-        EventMetadata metadata = detailsPanel.getEventMetadata();
-        if (!metadata.isValid()) {
-            JOptionPane.showMessageDialog(this,
-                    "Please fill in event name, date, and photographer!",
-                    "Missing Information",
-                    JOptionPane.WARNING_MESSAGE);
+        EventMetadata metadata = getExportMetadata();
+        if (metadata == null) {
             return;
         }
 
         File destinationDir = selectDestinationDirectory();
         if (destinationDir != null) {
-            int quality = qualityPanel.getQuality();
-            PhotoOrganizer organizer = new PhotoOrganizer(selectedPhotos, metadata, quality);
+            ExportOptions options = createExportOptions();
+            PhotoOrganizer organizer = new PhotoOrganizer(selectedPhotos, metadata, options);
             organizer.organize(this, destinationDir, (success, message) -> {
                 if (success) {
                     statusLabel.setText("Successfully organized " + selectedPhotos.size() +
                             " photos and generated HTML gallery!");
-                    JOptionPane.showMessageDialog(this,
+                    Object[] choices = {"OK", "Preview Gallery"};
+                    int choice = JOptionPane.showOptionDialog(this,
                             message,
                             "Success",
-                            JOptionPane.INFORMATION_MESSAGE);
+                            JOptionPane.DEFAULT_OPTION,
+                            JOptionPane.INFORMATION_MESSAGE,
+                            null, choices, choices[0]);
+                    if (choice == 1) {
+                        previewGallery(new File(destinationDir, metadata.getFolderName()));
+                    }
                 } else {
                     JOptionPane.showMessageDialog(this,
                             message,
@@ -341,6 +431,84 @@ public class EventPhotoOrganizer extends JFrame {
         }
     }
 
+    /**
+     * Adds the current event to the export queue and shows the queue window. The
+     * export runs in the background, so the next event can be set up meanwhile.
+     */
+    private void queueExport() {
+        EventMetadata metadata = getExportMetadata();
+        if (metadata == null) {
+            return;
+        }
+        File destinationDir = selectDestinationDirectory();
+        if (destinationDir == null) {
+            return;
+        }
+        ExportOptions options = createExportOptions();
+        if (exportQueue == null) {
+            // Workers and memory budget are shared by every queued event
+            exportQueue = new ExportQueue(options.getWorkerCount(), options.createMemoryBudget());
+            exportQueueDialog = new ExportQueueDialog(this, exportQueue);
+        }
+        try {
+            exportQueue.submit(new ExportJob(selectedPhotos, metadata, options), destinationDir, 0);
+        } catch (IllegalArgumentException e) {
+            JOptionPane.showMessageDialog(this,
+                    e.getMessage(),
+                    "Already Queued",
+                    JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+        statusLabel.setText("Queued " + selectedPhotos.size() + " photos of " + metadata.getEventName() +
+                ". Clear the selection to set up the next event.");
+        exportQueueDialog.open();
+    }
+
+    /**
+     * The event details for an export, or null after telling the user what is missing
+     */
+    private EventMetadata getExportMetadata() {
+        if (selectedPhotos.isEmpty()) {
+            JOptionPane.showMessageDialog(this,
+                    "Please import photos first!",
+                    "No Photos",
+                    JOptionPane.WARNING_MESSAGE);
+            return null;
+        }
+
+        EventMetadata metadata = detailsPanel.getEventMetadata();
+        if (!metadata.isValid()) {
+            JOptionPane.showMessageDialog(this,
+                    "Please fill in event name, date, and photographer!",
+                    "Missing Information",
+                    JOptionPane.WARNING_MESSAGE);
+            return null;
+        }
+        return metadata;
+    }
+
+    private ExportOptions createExportOptions() {
+        ExportOptions options = new ExportOptions(qualityPanel.getQuality(),
+                qualityPanel.getThumbnailSize());
+        options.setThumbnailTargetBytes(qualityPanel.getTargetBytes());
+        exportOptionsPanel.applyTo(options);
+        return options;
+    }
+
+    /**
+     * Serves the generated gallery on localhost and opens it in the browser
+     */
+    private void previewGallery(File galleryDir) {
+        try {
+            PreviewServerDialog.open(this, galleryDir);
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(this,
+                    "Could not start the preview server: " + e.getMessage(),
+                    "Error",
+                    JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
     private File selectDestinationDirectory() {
         // Use native directory picker
         System.setProperty("apple.awt.fileDialogForDirectories", "true");
@@ -361,6 +529,11 @@ public class EventPhotoOrganizer extends JFrame {
     }
 
     public static void main(String[] args) {
+        // Batch mode for headless servers: no window is created
+        if (CommandLineExporter.isCommandLine(args)) {
+            System.exit(CommandLineExporter.runHeadless(args));
+        }
+
         // Set macOS system properties before creating UI
         if (System.getProperty("os.name").toLowerCase().contains("mac")) {
             System.setProperty("apple.laf.useScreenMenuBar", "true");
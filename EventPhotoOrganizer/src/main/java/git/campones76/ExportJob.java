@@ -0,0 +1,230 @@
+package git.campones76;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.function.IntConsumer;
+
+/**
+ * Runs a complete export without any user interface: originals, thumbnails,
+ * assets, event-info.txt and index.html. Used by both the Swing app and the
+ * command line. Every stage is timed, and the timings are written to
+ * export-report.txt next to event-info.txt.
+ */
+public class ExportJob {
+    private final List<File> photos;
+    private final EventMetadata metadata;
+    private final ExportOptions options;
+    private final PhotoProcessor processor;
+    private NearDuplicateReport nearDuplicates;
+    private StageStats stageStats = new StageStats();
+
+    public ExportJob(List<File> photos, EventMetadata metadata, ExportOptions options) {
+        // Our own copy: ordering by capture time must not reorder the caller's selection
+        this.photos = new ArrayList<>(photos);
+        this.metadata = metadata;
+        this.options = options;
+        this.processor = new PhotoProcessor(this.photos, metadata, options);
+    }
+
+    /**
+     * The event folder this job writes into
+     */
+    public File getDestDir(File baseDir) {
+        return new File(baseDir, metadata.getFolderName());
+    }
+
+    /**
+     * Number of progress steps reported by {@link #run}
+     */
+    public int getTotalSteps() {
+        return processor.getTotalSteps();
+    }
+
+    /**
+     * Exports the photos into the event folder under baseDir
+     * @param progress receives the number of completed steps; called from worker threads
+     * @return the event folder
+     */
+    public File run(File baseDir, IntConsumer progress) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        stageStats = new StageStats();
+        processor.setStageStats(stageStats);
+        File destDir = getDestDir(baseDir);
+        File assetsDir = new File(destDir, "assets");
+        File cssDir = new File(assetsDir, "css");
+        File imgDir = new File(assetsDir, "img");
+        File icoDir = new File(assetsDir, "ico");
+
+        // Create directories
+        cssDir.mkdirs();
+        imgDir.mkdirs();
+        icoDir.mkdirs();
+
+        if (options.getPhotoOrder() == CaptureOrder.Mode.CAPTURE_TIME) {
+            // Sorted in place; the processor numbers photos from the same list
+            stageStats.time(StageStats.Stage.ORDER, () -> new CaptureOrder(options.getCameraOffsets()).sort(photos));
+        }
+        List<String> photoFilenames = processor.process(destDir, progress);
+        if (processor.isCancelled()) {
+            throw new CancellationException("Export cancelled");
+        }
+
+        nearDuplicates = null;
+        if (options.getNearDuplicateDistance() >= 0) {
+            stageStats.time(StageStats.Stage.NEAR_DUPLICATES, () -> {
+                nearDuplicates = NearDuplicateReport.find(photoFilenames, processor.getPerceptualHashes(),
+                        options.getNearDuplicateDistance());
+                nearDuplicates.write(destDir, photos);
+            });
+        } else {
+            Files.deleteIfExists(new File(destDir, NearDuplicateReport.FILE_NAME).toPath());
+        }
+
+        stageStats.time(StageStats.Stage.ASSETS, () -> {
+            AssetGenerator assetGen = new AssetGenerator();
+            assetGen.copyAssets(cssDir, imgDir, icoDir);
+            assetGen.createMetadataFile(destDir, metadata, photos.size());
+        });
+
+        boolean bundled = options.getLibraryMode() == VendorLibraries.Mode.BUNDLED;
+        try (StageStats.Timing timing = stageStats.start(StageStats.Stage.HTML, "index.html")) {
+            HTMLGenerator htmlGen = new HTMLGenerator();
+            htmlGen.setThumbnailLadder(options.getThumbnailLadder());
+            htmlGen.setPreviews(processor.getPreviews());
+            if (bundled) {
+                htmlGen.setLibraryUrls(VendorLibraries.bundle(destDir));
+            }
+            htmlGen.generateGallery(destDir, metadata, photoFilenames);
+            timing.setBytes(new File(destDir, "index.html").length());
+        }
+
+        stageStats.time(StageStats.Stage.PRECOMPRESS, () -> {
+            if (bundled) {
+                new Precompressor(options.getWorkerCount()).compressAll(destDir);
+            } else {
+                Precompressor.removeAll(destDir);
+            }
+        });
+
+        stageStats.writeReport(destDir, photos.size(), System.nanoTime() - start, String.format(
+                "Quality %s, size %s, %d workers, transfer %s, libraries %s, %d reused",
+                describeQuality(options), options.getThumbnailSize(), options.getWorkerCount(),
+                options.getTransferMode(), options.getLibraryMode(), processor.getReusedCount()));
+        return destDir;
+    }
+
+    /**
+     * The thumbnail quality setting for reports: the fixed percentage, or the byte budget
+     */
+    public static String describeQuality(ExportOptions options) {
+        return options.getThumbnailTargetBytes() > 0
+                ? "fitted to " + FileTransfer.formatBytes(options.getThumbnailTargetBytes())
+                : options.getQuality() + "%";
+    }
+
+    /**
+     * Runs the per-photo work on executor, such as a lane of a {@link PhotoScheduler}
+     * shared with other exports, instead of a pool of its own; for one run only
+     */
+    public void setExecutor(ExecutorService executor) {
+        processor.setExecutor(executor);
+    }
+
+    /**
+     * Limits decoded pixels with budget, shared with other exports, instead of a budget
+     * made from the options
+     */
+    public void setMemoryBudget(MemoryBudget budget) {
+        processor.setMemoryBudget(budget);
+    }
+
+    public EventMetadata getMetadata() {
+        return metadata;
+    }
+
+    /**
+     * Number of photos to export
+     */
+    public int getPhotoCount() {
+        return photos.size();
+    }
+
+    /**
+     * Stops a running export after the photos in progress; the next export into the
+     * same folder resumes where it stopped
+     */
+    public void cancel() {
+        processor.cancel();
+    }
+
+    public boolean isCancelled() {
+        return processor.isCancelled();
+    }
+
+    /**
+     * Number of photos an earlier, interrupted export into the event folder under
+     * baseDir completed and a run would resume from; 0 if there is nothing to resume
+     */
+    public int getResumableCount(File baseDir) {
+        return ExportJournal.countCompleted(getDestDir(baseDir));
+    }
+
+    public ExportOptions getOptions() {
+        return options;
+    }
+
+    /**
+     * Number of photos whose outputs were reused from the previous export
+     */
+    public int getReusedCount() {
+        return processor.getReusedCount();
+    }
+
+    /**
+     * Summary of how the originals were placed in the pictures folder
+     */
+    public String getTransferSummary() {
+        return processor.getTransferSummary();
+    }
+
+    /**
+     * How the thumbnails of the last run were fitted to the byte budget, or null if
+     * they used the fixed quality
+     */
+    public String getThumbnailBudgetSummary() {
+        return processor.getThumbnailBudgetSummary();
+    }
+
+    /**
+     * Near-duplicate clusters found by the last run, or null if the report was disabled
+     */
+    public NearDuplicateReport getNearDuplicates() {
+        return nearDuplicates;
+    }
+
+    /**
+     * Cross-export thumbnail cache of the last run, or null if it was disabled
+     */
+    public ThumbnailCache getThumbnailCache() {
+        return processor.getThumbnailCache();
+    }
+
+    /**
+     * Stage timings of the last run, also written to export-report.txt
+     */
+    public StageStats getStageStats() {
+        return stageStats;
+    }
+
+    /**
+     * Budget limiting the decoded pixels held at the same time, with its current and peak use
+     */
+    public MemoryBudget getMemoryBudget() {
+        return processor.getMemoryBudget();
+    }
+}
@@ -0,0 +1,202 @@
+package git.campones76;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Append-only checkpoint log of an export in progress, kept next to the export
+ * manifest until the run finishes. Before a photo's outputs are written its name is
+ * logged as pending (and forced to disk); once they are in place its manifest entry
+ * is logged as done. After a crash {@link #recover} keeps every photo that was done
+ * and discards the outputs of photos that were still pending, so the next export
+ * resumes from the last completed photo instead of starting over.
+ * Safe to use from several worker threads at once.
+ */
+public class ExportJournal {
+    public static final String FILE_NAME = "export-journal.txt";
+    private static final String HEADER_PREFIX = "# Event Photo Organizer export journal v";
+    private static final String PENDING = "P\t";
+    private static final String DONE = "D\t";
+
+    // A stream rather than a FileChannel: an interrupted worker would close a channel for everyone
+    private final FileOutputStream out;
+
+    private ExportJournal(FileOutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Starts a new, empty journal in destDir, replacing any previous one
+     */
+    public static ExportJournal start(File destDir) throws IOException {
+        ExportJournal journal = new ExportJournal(new FileOutputStream(new File(destDir, FILE_NAME)));
+        journal.append(HEADER_PREFIX + ExportManifest.VERSION + "\n", true);
+        return journal;
+    }
+
+    /**
+     * Whether destDir holds the journal of an export that did not finish
+     */
+    public static boolean exists(File destDir) {
+        return new File(destDir, FILE_NAME).isFile();
+    }
+
+    /**
+     * Number of photos an interrupted export in destDir completed, 0 if there is none
+     */
+    public static int countCompleted(File destDir) {
+        if (!exists(destDir)) {
+            return 0;
+        }
+        return read(destDir, new HashSet<>()).size();
+    }
+
+    /**
+     * Logs that the outputs of the photo with this base name are about to be written
+     */
+    public void pending(String baseName) throws IOException {
+        append(PENDING + baseName + "\n", true);
+    }
+
+    /**
+     * Logs that a photo's outputs are complete
+     */
+    public void done(ExportManifest.Entry entry) throws IOException {
+        // Losing this line only means redoing the photo, so it is not forced to disk
+        append(DONE + entry.format() + "\n", false);
+    }
+
+    private synchronized void append(String line, boolean force) throws IOException {
+        out.write(line.getBytes(StandardCharsets.UTF_8));
+        if (force) {
+            out.getFD().sync();
+        }
+    }
+
+    public void close() throws IOException {
+        out.close();
+    }
+
+    /**
+     * Removes the journal once the manifest has been saved
+     */
+    public static void delete(File destDir) throws IOException {
+        Files.deleteIfExists(new File(destDir, FILE_NAME).toPath());
+    }
+
+    /**
+     * Folds the journal of an interrupted export into the manifest. Photos logged as
+     * done replace the manifest entries for the same output name; outputs that were
+     * pending without being done may be half-replaced, so they are deleted together
+     * with every manifest entry that claims them. The merged manifest is saved, and
+     * leftover temporary files and staged outputs are removed.
+     * @return the manifest to plan the next run against
+     */
+    public static ExportManifest recover(File destDir, ExportManifest manifest, File... scratchDirs)
+            throws IOException {
+        if (!exists(destDir)) {
+            return manifest;
+        }
+        Set<String> touched = new HashSet<>();
+        Map<String, ExportManifest.Entry> done = read(destDir, touched);
+
+        List<ExportManifest.Entry> entries = new ArrayList<>(done.values());
+        Set<String> kept = new HashSet<>();
+        for (ExportManifest.Entry entry : entries) {
+            kept.addAll(entry.getOutputs());
+        }
+        for (ExportManifest.Entry entry : manifest.getEntries()) {
+            if (!touched.contains(baseName(entry))) {
+                entries.add(entry);
+                kept.addAll(entry.getOutputs());
+            }
+        }
+        for (ExportManifest.Entry entry : manifest.getEntries()) {
+            if (touched.contains(baseName(entry))) {
+                for (String output : entry.getOutputs()) {
+                    if (!kept.contains(output)) {
+                        Files.deleteIfExists(new File(destDir, output).toPath());
+                    }
+                }
+            }
+        }
+        for (File dir : scratchDirs) {
+            deleteTempFiles(dir);
+        }
+
+        ExportManifest recovered = new ExportManifest(entries);
+        recovered.save(destDir);
+        delete(destDir);
+        return recovered;
+    }
+
+    /**
+     * Reads the done entries by picture base name and collects every base name that
+     * was pending
+     */
+    private static Map<String, ExportManifest.Entry> read(File destDir, Set<String> touched) {
+        Map<String, ExportManifest.Entry> done = new LinkedHashMap<>();
+        String content;
+        try {
+            content = new String(Files.readAllBytes(new File(destDir, FILE_NAME).toPath()), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            System.err.println("Could not read export journal: " + e.getMessage());
+            return done;
+        }
+        String[] lines = content.split("\n", -1);
+        if (!lines[0].equals(HEADER_PREFIX + ExportManifest.VERSION)) {
+            return done;
+        }
+        // The last element follows the final newline: empty, or a line the crash cut short
+        for (int i = 1; i < lines.length - 1; i++) {
+            String line = lines[i];
+            if (line.startsWith(PENDING)) {
+                touched.add(line.substring(PENDING.length()));
+            } else if (line.startsWith(DONE)) {
+                ExportManifest.Entry entry = ExportManifest.Entry.parse(line.substring(DONE.length()),
+                        ExportManifest.VERSION);
+                if (entry != null) {
+                    done.put(baseName(entry), entry);
+                    touched.add(baseName(entry));
+                }
+            }
+        }
+        return done;
+    }
+
+    /**
+     * Name the outputs of an entry share: its picture's file name without extension
+     */
+    private static String baseName(ExportManifest.Entry entry) {
+        String picture = new File(entry.getOutputs().get(0)).getName();
+        int dot = picture.lastIndexOf('.');
+        return dot > 0 ? picture.substring(0, dot) : picture;
+    }
+
+    /**
+     * Deletes files an interrupted write left under dir: temporary files, and the
+     * staging folders old outputs were moved into
+     */
+    private static void deleteTempFiles(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                deleteTempFiles(file);
+            } else if (file.getName().endsWith(".tmp") && !file.delete()) {
+                System.err.println("Could not remove temporary file: " + file.getPath());
+            }
+        }
+    }
+}
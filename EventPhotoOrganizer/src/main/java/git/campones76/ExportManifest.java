@@ -0,0 +1,228 @@
+package git.campones76;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Records what an export produced, so that a later export into the same event folder
+ * can skip photos whose source file and thumbnail settings have not changed.
+ * Stored as a tab-separated text file next to event-info.txt.
+ */
+public class ExportManifest {
+    public static final String FILE_NAME = "export-manifest.txt";
+    private static final String HEADER_PREFIX = "# Event Photo Organizer export manifest v";
+    // v1 had no thumbnail preview column and v2 no perceptual hash column; both are still read
+    static final int VERSION = 3;
+
+    private final List<Entry> entries;
+
+    public ExportManifest(List<Entry> entries) {
+        this.entries = entries;
+    }
+
+    /**
+     * Loads the manifest of an event folder
+     * @return the manifest, or an empty one if the folder has none or it cannot be read
+     */
+    public static ExportManifest load(File destDir) {
+        File manifestFile = new File(destDir, FILE_NAME);
+        List<Entry> entries = new ArrayList<>();
+        if (!manifestFile.isFile()) {
+            return new ExportManifest(entries);
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(manifestFile.toPath(), StandardCharsets.UTF_8)) {
+            int version = parseVersion(reader.readLine());
+            if (version < 1 || version > VERSION) {
+                return new ExportManifest(entries);
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Entry entry = Entry.parse(line, version);
+                if (entry != null) {
+                    entries.add(entry);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Could not read export manifest, doing a full export: " + e.getMessage());
+            entries.clear();
+        }
+        return new ExportManifest(entries);
+    }
+
+    private static int parseVersion(String header) {
+        if (header == null || !header.startsWith(HEADER_PREFIX)) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(header.substring(HEADER_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Writes the manifest into the event folder, replacing the previous one
+     */
+    public void save(File destDir) throws IOException {
+        File manifestFile = new File(destDir, FILE_NAME);
+        File tempFile = new File(destDir, FILE_NAME + ".tmp");
+        try (PrintWriter w = new PrintWriter(Files.newBufferedWriter(tempFile.toPath(), StandardCharsets.UTF_8))) {
+            w.println(HEADER_PREFIX + VERSION);
+            for (Entry entry : entries) {
+                w.println(entry.format());
+            }
+        }
+        Files.move(tempFile.toPath(), manifestFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * Every output path recorded in the manifest, relative to the event folder
+     */
+    public Set<String> getAllOutputs() {
+        Set<String> outputs = new HashSet<>();
+        for (Entry entry : entries) {
+            outputs.addAll(entry.getOutputs());
+        }
+        return outputs;
+    }
+
+    /**
+     * One exported photo: its source fingerprint, the settings used, the files it
+     * produced, the preview of its thumbnail and its perceptual hash
+     */
+    public static class Entry {
+        private final String sourcePath;
+        private final long size;
+        private final long lastModified;
+        private final String contentHash;
+        private final String settings;
+        private final ThumbnailPreview preview;
+        private final Long perceptualHash;
+        private final List<String> outputs;
+
+        /**
+         * @param preview dimensions and placeholder of the thumbnail, null if unknown
+         * @param perceptualHash dHash of the photo, null if unknown
+         * @param outputs produced files relative to the event folder, the copied picture first
+         */
+        public Entry(String sourcePath, long size, long lastModified, String contentHash,
+                     String settings, ThumbnailPreview preview, Long perceptualHash, List<String> outputs) {
+            this.sourcePath = sourcePath;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.contentHash = contentHash;
+            this.settings = settings;
+            this.preview = preview;
+            this.perceptualHash = perceptualHash;
+            this.outputs = outputs;
+        }
+
+        public String getSourcePath() {
+            return sourcePath;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public String getContentHash() {
+            return contentHash;
+        }
+
+        public String getSettings() {
+            return settings;
+        }
+
+        /**
+         * Dimensions and placeholder of the thumbnail, or null if the entry predates them
+         */
+        public ThumbnailPreview getPreview() {
+            return preview;
+        }
+
+        /**
+         * dHash of the photo, or null if the entry predates perceptual hashes
+         */
+        public Long getPerceptualHash() {
+            return perceptualHash;
+        }
+
+        public List<String> getOutputs() {
+            return outputs;
+        }
+
+        String format() {
+            StringBuilder line = new StringBuilder();
+            line.append(escape(sourcePath)).append('\t')
+                    .append(size).append('\t')
+                    .append(lastModified).append('\t')
+                    .append(contentHash).append('\t')
+                    .append(escape(settings)).append('\t')
+                    .append(preview != null ? preview.format() : "").append('\t')
+                    .append(perceptualHash != null ? Long.toHexString(perceptualHash) : "");
+            for (String output : outputs) {
+                line.append('\t').append(escape(output));
+            }
+            return line.toString();
+        }
+
+        static Entry parse(String line, int version) {
+            String[] fields = line.split("\t", -1);
+            int firstOutput = 4 + version;
+            if (fields.length < firstOutput + 1) {
+                return null;
+            }
+            try {
+                List<String> outputs = new ArrayList<>();
+                for (String output : Arrays.asList(fields).subList(firstOutput, fields.length)) {
+                    outputs.add(unescape(output));
+                }
+                ThumbnailPreview preview = version >= 2 ? ThumbnailPreview.parse(fields[5]) : null;
+                Long perceptualHash = version >= 3 && !fields[6].isEmpty()
+                        ? Long.parseUnsignedLong(fields[6], 16) : null;
+                return new Entry(unescape(fields[0]), Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+                        fields[3], unescape(fields[4]), preview, perceptualHash, outputs);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n");
+    }
+
+    private static String unescape(String value) {
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                sb.append(next == 't' ? '\t' : next == 'n' ? '\n' : next);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
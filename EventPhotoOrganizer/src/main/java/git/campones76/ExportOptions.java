@@ -0,0 +1,190 @@
+package git.campones76;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Settings that control how an export is produced, as chosen in the UI
+ */
+public class ExportOptions {
+    private int quality = 85;
+    private int thumbnailTargetBytes;
+    private ThumbnailSize thumbnailSize = ThumbnailSize.forGalleryMosaic();
+    private FileTransfer.Mode transferMode = FileTransfer.Mode.COPY;
+    private int workerCount = Runtime.getRuntime().availableProcessors();
+    private int[] thumbnailLadder = {60, 240, 480, 960};
+    private long memoryBudgetBytes;
+    private VendorLibraries.Mode libraryMode = VendorLibraries.Mode.CDN;
+    private int nearDuplicateDistance = 6;
+    private CaptureOrder.Mode photoOrder = CaptureOrder.Mode.SELECTION;
+    private Map<String, Long> cameraOffsets = new HashMap<>();
+    private long thumbnailCacheBytes = 1024L * 1024 * 1024;
+    private File thumbnailCacheDir = ThumbnailCache.getDefaultDir();
+
+    public ExportOptions() {
+    }
+
+    public ExportOptions(int quality, ThumbnailSize thumbnailSize) {
+        this.quality = quality;
+        this.thumbnailSize = thumbnailSize;
+    }
+
+    /**
+     * Thumbnail compression quality percentage (0-100)
+     */
+    public int getQuality() {
+        return quality;
+    }
+
+    public void setQuality(int quality) {
+        this.quality = quality;
+    }
+
+    /**
+     * Byte budget per main thumbnail; ladder sizes get it scaled by their area. When set,
+     * each thumbnail's quality is searched for to fit its budget and {@link #getQuality}
+     * is not used. 0 for the fixed quality.
+     */
+    public int getThumbnailTargetBytes() {
+        return thumbnailTargetBytes;
+    }
+
+    public void setThumbnailTargetBytes(int thumbnailTargetBytes) {
+        this.thumbnailTargetBytes = Math.max(0, thumbnailTargetBytes);
+    }
+
+    public ThumbnailSize getThumbnailSize() {
+        return thumbnailSize;
+    }
+
+    public void setThumbnailSize(ThumbnailSize thumbnailSize) {
+        this.thumbnailSize = thumbnailSize;
+    }
+
+    /**
+     * How originals are placed into the pictures folder
+     */
+    public FileTransfer.Mode getTransferMode() {
+        return transferMode;
+    }
+
+    public void setTransferMode(FileTransfer.Mode transferMode) {
+        this.transferMode = transferMode;
+    }
+
+    /**
+     * Number of photos processed at the same time
+     */
+    public int getWorkerCount() {
+        return workerCount;
+    }
+
+    public void setWorkerCount(int workerCount) {
+        this.workerCount = Math.max(1, workerCount);
+    }
+
+    /**
+     * Long edges (px) of the extra thumbnail sizes the gallery can pick from per screen;
+     * empty to write only the main thumbnail
+     */
+    public int[] getThumbnailLadder() {
+        return thumbnailLadder.clone();
+    }
+
+    public void setThumbnailLadder(int[] thumbnailLadder) {
+        this.thumbnailLadder = thumbnailLadder.clone();
+    }
+
+    /**
+     * Bytes of decoded pixels the workers may hold at the same time; 0 for half the heap
+     */
+    public long getMemoryBudgetBytes() {
+        return memoryBudgetBytes;
+    }
+
+    public void setMemoryBudgetBytes(long memoryBudgetBytes) {
+        this.memoryBudgetBytes = Math.max(0, memoryBudgetBytes);
+    }
+
+    /**
+     * Whether the page loads its libraries from the CDN, or from bundled copies with
+     * precompressed .gz siblings of every text file
+     */
+    public VendorLibraries.Mode getLibraryMode() {
+        return libraryMode;
+    }
+
+    public void setLibraryMode(VendorLibraries.Mode libraryMode) {
+        this.libraryMode = libraryMode;
+    }
+
+    /**
+     * Largest perceptual hash distance, in bits out of 64, at which two photos are
+     * reported as near-duplicates; negative to skip the report
+     */
+    public int getNearDuplicateDistance() {
+        return nearDuplicateDistance;
+    }
+
+    public void setNearDuplicateDistance(int nearDuplicateDistance) {
+        this.nearDuplicateDistance = Math.min(64, nearDuplicateDistance);
+    }
+
+    /**
+     * Whether photos are numbered in the order selected or in the order they were taken
+     */
+    public CaptureOrder.Mode getPhotoOrder() {
+        return photoOrder;
+    }
+
+    public void setPhotoOrder(CaptureOrder.Mode photoOrder) {
+        this.photoOrder = photoOrder;
+    }
+
+    /**
+     * Milliseconds added to each camera body's capture times when ordering by capture
+     * time, keyed by {@link CaptureTime#getCamera()}
+     */
+    public Map<String, Long> getCameraOffsets() {
+        return new HashMap<>(cameraOffsets);
+    }
+
+    public void setCameraOffsets(Map<String, Long> cameraOffsets) {
+        this.cameraOffsets = new HashMap<>(cameraOffsets);
+    }
+
+    /**
+     * Size cap of the thumbnail cache shared by all exports; 0 to not use the cache
+     */
+    public long getThumbnailCacheBytes() {
+        return thumbnailCacheBytes;
+    }
+
+    public void setThumbnailCacheBytes(long thumbnailCacheBytes) {
+        this.thumbnailCacheBytes = Math.max(0, thumbnailCacheBytes);
+    }
+
+    public File getThumbnailCacheDir() {
+        return thumbnailCacheDir;
+    }
+
+    public void setThumbnailCacheDir(File thumbnailCacheDir) {
+        this.thumbnailCacheDir = thumbnailCacheDir;
+    }
+
+    /**
+     * Opens the thumbnail cache these options describe
+     * @return the cache, or null if it is disabled
+     */
+    public ThumbnailCache openThumbnailCache() {
+        return thumbnailCacheBytes > 0 ? ThumbnailCache.open(thumbnailCacheDir, thumbnailCacheBytes) : null;
+    }
+
+    /**
+     * Creates the memory budget these options describe
+     */
+    public MemoryBudget createMemoryBudget() {
+        return memoryBudgetBytes > 0 ? new MemoryBudget(memoryBudgetBytes) : MemoryBudget.forHeap();
+    }
+}
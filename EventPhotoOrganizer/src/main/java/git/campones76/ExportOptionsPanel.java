@@ -0,0 +1,168 @@
+package git.campones76;
+
+import javax.swing.*;
+import java.awt.*;
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Panel for export settings that are not about thumbnail appearance
+ */
+public class ExportOptionsPanel extends JPanel {
+    private final JComboBox<FileTransfer.Mode> transferComboBox;
+    private final JComboBox<VendorLibraries.Mode> libraryComboBox;
+    private final JComboBox<CaptureOrder.Mode> orderComboBox;
+    private final JButton cameraOffsetsButton;
+    private Map<String, Long> cameraOffsets = new HashMap<>();
+    private Supplier<List<File>> photoSupplier;
+
+    public ExportOptionsPanel() {
+        transferComboBox = new JComboBox<>(FileTransfer.Mode.values());
+        transferComboBox.setSelectedItem(FileTransfer.Mode.COPY);
+        libraryComboBox = new JComboBox<>(VendorLibraries.Mode.values());
+        libraryComboBox.setSelectedItem(VendorLibraries.Mode.CDN);
+        orderComboBox = new JComboBox<>(CaptureOrder.Mode.values());
+        orderComboBox.setSelectedItem(CaptureOrder.Mode.SELECTION);
+        cameraOffsetsButton = new JButton("Camera Offsets...");
+        initializeUI();
+    }
+
+    private void initializeUI() {
+        setLayout(new BoxLayout(this, BoxLayout.Y_AXIS));
+        setMaximumSize(new Dimension(600, 100));
+        setOpaque(false);
+
+        JPanel transferPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 10, 0));
+        transferPanel.setMaximumSize(new Dimension(600, 30));
+        transferPanel.setOpaque(false);
+
+        JLabel transferLabel = new JLabel("Original Photos:");
+        transferLabel.setForeground(Color.WHITE);
+        transferPanel.add(transferLabel);
+        transferComboBox.setToolTipText("How originals are placed in the pictures folder. " +
+                "Links and clones fall back to copying when the destination is on another disk.");
+        transferPanel.add(transferComboBox);
+
+        transferPanel.setAlignmentX(Component.LEFT_ALIGNMENT);
+        add(transferPanel);
+        add(Box.createVerticalStrut(5));
+
+        JPanel libraryPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 10, 0));
+        libraryPanel.setMaximumSize(new Dimension(600, 30));
+        libraryPanel.setOpaque(false);
+
+        JLabel libraryLabel = new JLabel("Gallery Libraries:");
+        libraryLabel.setForeground(Color.WHITE);
+        libraryPanel.add(libraryLabel);
+        libraryComboBox.setToolTipText("Bundling copies jQuery and nanogallery2 into the gallery so it works " +
+                "offline, and writes .gz copies of every text file for static servers.");
+        libraryPanel.add(libraryComboBox);
+
+        libraryPanel.setAlignmentX(Component.LEFT_ALIGNMENT);
+        add(libraryPanel);
+        add(Box.createVerticalStrut(5));
+
+        JPanel orderPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 10, 0));
+        orderPanel.setMaximumSize(new Dimension(600, 30));
+        orderPanel.setOpaque(false);
+
+        JLabel orderLabel = new JLabel("Photo Order:");
+        orderLabel.setForeground(Color.WHITE);
+        orderPanel.add(orderLabel);
+        orderComboBox.setToolTipText("Capture time numbers the photos by when they were taken, " +
+                "which keeps shoots from several cameras in show order.");
+        orderComboBox.addActionListener(e -> cameraOffsetsButton.setEnabled(
+                orderComboBox.getSelectedItem() == CaptureOrder.Mode.CAPTURE_TIME));
+        orderPanel.add(orderComboBox);
+        cameraOffsetsButton.setToolTipText("Shift each camera's clock so bodies that were not synchronised line up");
+        cameraOffsetsButton.setEnabled(false);
+        cameraOffsetsButton.addActionListener(e -> editCameraOffsets());
+        orderPanel.add(cameraOffsetsButton);
+
+        orderPanel.setAlignmentX(Component.LEFT_ALIGNMENT);
+        add(orderPanel);
+    }
+
+    /**
+     * Supplies the selected photos, whose camera bodies the offsets dialog lists
+     */
+    public void setPhotoSupplier(Supplier<List<File>> photoSupplier) {
+        this.photoSupplier = photoSupplier;
+    }
+
+    /**
+     * Finds the camera bodies in the background, then lets the user set each one's
+     * clock offset in seconds
+     */
+    private void editCameraOffsets() {
+        List<File> photos = photoSupplier != null ? photoSupplier.get() : List.of();
+        if (photos.isEmpty()) {
+            JOptionPane.showMessageDialog(this, "Please import photos first.",
+                    "No Photos", JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+        cameraOffsetsButton.setEnabled(false);
+        new SwingWorker<Map<String, Integer>, Void>() {
+            @Override
+            protected Map<String, Integer> doInBackground() throws Exception {
+                return CaptureOrder.findCameras(photos);
+            }
+
+            @Override
+            protected void done() {
+                cameraOffsetsButton.setEnabled(orderComboBox.getSelectedItem() == CaptureOrder.Mode.CAPTURE_TIME);
+                try {
+                    showCameraOffsetsDialog(get());
+                } catch (Exception e) {
+                    System.err.println("Could not read camera bodies: " + e.getMessage());
+                }
+            }
+        }.execute();
+    }
+
+    private void showCameraOffsetsDialog(Map<String, Integer> cameras) {
+        if (cameras.isEmpty()) {
+            JOptionPane.showMessageDialog(this, "None of the selected photos name their camera.",
+                    "Camera Offsets", JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+        JPanel grid = new JPanel(new GridLayout(0, 2, 10, 5));
+        Map<String, JSpinner> spinners = new HashMap<>();
+        for (Map.Entry<String, Integer> camera : cameras.entrySet()) {
+            grid.add(new JLabel(camera.getKey() + " (" + camera.getValue() + " photos)"));
+            double seconds = cameraOffsets.getOrDefault(camera.getKey(), 0L) / 1000.0;
+            JSpinner spinner = new JSpinner(new SpinnerNumberModel(seconds, -86400.0, 86400.0, 1.0));
+            spinners.put(camera.getKey(), spinner);
+            grid.add(spinner);
+        }
+        JPanel content = new JPanel(new BorderLayout(0, 10));
+        content.add(new JLabel("Seconds to add to each camera's capture times:"), BorderLayout.NORTH);
+        content.add(grid, BorderLayout.CENTER);
+
+        int result = JOptionPane.showConfirmDialog(this, content, "Camera Offsets",
+                JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+        if (result == JOptionPane.OK_OPTION) {
+            Map<String, Long> offsets = new HashMap<>();
+            for (Map.Entry<String, JSpinner> spinner : spinners.entrySet()) {
+                long millis = Math.round(((Number) spinner.getValue().getValue()).doubleValue() * 1000);
+                if (millis != 0) {
+                    offsets.put(spinner.getKey(), millis);
+                }
+            }
+            cameraOffsets = offsets;
+        }
+    }
+
+    /**
+     * Copies the settings from this panel into options
+     */
+    public void applyTo(ExportOptions options) {
+        options.setTransferMode((FileTransfer.Mode) transferComboBox.getSelectedItem());
+        options.setLibraryMode((VendorLibraries.Mode) libraryComboBox.getSelectedItem());
+        options.setPhotoOrder((CaptureOrder.Mode) orderComboBox.getSelectedItem());
+        options.setCameraOffsets(cameraOffsets);
+    }
+}
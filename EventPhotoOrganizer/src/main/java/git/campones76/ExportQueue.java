@@ -0,0 +1,327 @@
+package git.campones76;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Exports several events at the same time on one shared {@link PhotoScheduler}.
+ * Every submitted event starts right away on a coordinator thread of its own, which
+ * does the event's serial work (ordering, gallery, report); its photos go to a lane
+ * of the scheduler, so the workers take turns between events and move on to other
+ * events' photos whenever one event has none left. All events also share one decode
+ * {@link MemoryBudget}.
+ * <p>
+ * Each event can be paused, cancelled or given a higher priority while the queue runs.
+ * A cancelled or interrupted event resumes from its journal when it is exported again.
+ */
+public class ExportQueue {
+    /**
+     * Receives progress and state changes of queued exports; called from worker and
+     * coordinator threads
+     */
+    public interface Listener {
+        void exportChanged(Entry entry);
+    }
+
+    public enum State {
+        RUNNING("Exporting"),
+        PAUSED("Paused"),
+        DONE("Done"),
+        FAILED("Failed"),
+        CANCELLED("Cancelled");
+
+        private final String label;
+
+        State(String label) {
+            this.label = label;
+        }
+
+        /**
+         * Whether the export has ended, successfully or not
+         */
+        public boolean isFinished() {
+            return this == DONE || this == FAILED || this == CANCELLED;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    private final PhotoScheduler scheduler;
+    private final MemoryBudget memoryBudget;
+    private final ExecutorService coordinators;
+    private final List<Entry> entries = new CopyOnWriteArrayList<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param workerCount photos processed at the same time, across all events
+     * @param memoryBudget decoded pixels held at the same time, across all events
+     */
+    public ExportQueue(int workerCount, MemoryBudget memoryBudget) {
+        this.scheduler = new PhotoScheduler(workerCount);
+        this.memoryBudget = memoryBudget;
+        AtomicInteger threadNumber = new AtomicInteger(1);
+        this.coordinators = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "export-coordinator-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Starts exporting job into its event folder under baseDir
+     * @param priority events with a higher priority get the workers first
+     * @throws IllegalArgumentException if an unfinished export already writes to the
+     *         same event folder
+     */
+    public synchronized Entry submit(ExportJob job, File baseDir, int priority) {
+        File destDir = job.getDestDir(baseDir).getAbsoluteFile();
+        for (Entry entry : entries) {
+            if (!entry.getState().isFinished() && entry.destDir.equals(destDir)) {
+                throw new IllegalArgumentException("Already exporting to " + destDir.getPath());
+            }
+        }
+        Entry entry = new Entry(job, baseDir, destDir, scheduler.newLane(priority));
+        job.setExecutor(entry.lane);
+        job.setMemoryBudget(memoryBudget);
+        entries.add(entry);
+        coordinators.execute(entry::run);
+        return entry;
+    }
+
+    /**
+     * Every submitted export, in submission order
+     */
+    public List<Entry> getEntries() {
+        return new ArrayList<>(entries);
+    }
+
+    /**
+     * Progress steps of all exports. Failed and cancelled exports count only the steps
+     * they completed, so the overall progress still reaches the total.
+     */
+    public int getTotalSteps() {
+        int total = 0;
+        for (Entry entry : entries) {
+            State state = entry.getState();
+            total += state == State.FAILED || state == State.CANCELLED
+                    ? entry.getCompletedSteps() : entry.getTotalSteps();
+        }
+        return total;
+    }
+
+    /**
+     * Completed progress steps of all exports
+     */
+    public int getCompletedSteps() {
+        int completed = 0;
+        for (Entry entry : entries) {
+            completed += entry.getCompletedSteps();
+        }
+        return completed;
+    }
+
+    /**
+     * Whether every submitted export has ended
+     */
+    public boolean isIdle() {
+        for (Entry entry : entries) {
+            if (!entry.getState().isFinished()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Waits until every export submitted so far has ended
+     */
+    public void awaitAll() throws InterruptedException {
+        for (Entry entry : getEntries()) {
+            entry.await();
+        }
+    }
+
+    public MemoryBudget getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    public int getWorkerCount() {
+        return scheduler.getWorkerCount();
+    }
+
+    /**
+     * Cancels every unfinished export and stops the threads once they have ended
+     */
+    public void shutdown() throws InterruptedException {
+        for (Entry entry : getEntries()) {
+            entry.cancel();
+        }
+        awaitAll();
+        scheduler.shutdown();
+        coordinators.shutdown();
+    }
+
+    private void fireChanged(Entry entry) {
+        for (Listener listener : listeners) {
+            listener.exportChanged(entry);
+        }
+    }
+
+    /**
+     * One event in the queue
+     */
+    public class Entry {
+        private final ExportJob job;
+        private final File baseDir;
+        private final File destDir;
+        private final PhotoScheduler.Lane lane;
+        private final AtomicInteger completedSteps = new AtomicInteger();
+        private final CountDownLatch finished = new CountDownLatch(1);
+        private volatile State finalState;
+        private volatile Exception failure;
+        private volatile long elapsedNanos;
+
+        private Entry(ExportJob job, File baseDir, File destDir, PhotoScheduler.Lane lane) {
+            this.job = job;
+            this.baseDir = baseDir;
+            this.destDir = destDir;
+            this.lane = lane;
+        }
+
+        private void run() {
+            long start = System.nanoTime();
+            try {
+                job.run(baseDir, steps -> {
+                    // Workers report concurrently, so counts may arrive slightly out of order
+                    if (completedSteps.accumulateAndGet(steps, Math::max) == steps) {
+                        fireChanged(this);
+                    }
+                });
+                finalState = State.DONE;
+            } catch (CancellationException e) {
+                finalState = State.CANCELLED;
+            } catch (InterruptedException e) {
+                finalState = State.CANCELLED;
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                failure = e;
+                finalState = job.isCancelled() ? State.CANCELLED : State.FAILED;
+            } finally {
+                // The job closes its lane after the photo phase; this covers runs that failed before it
+                lane.shutdownNow();
+                elapsedNanos = System.nanoTime() - start;
+                finished.countDown();
+                fireChanged(this);
+            }
+        }
+
+        public ExportJob getJob() {
+            return job;
+        }
+
+        /**
+         * The event folder being written
+         */
+        public File getDestDir() {
+            return destDir;
+        }
+
+        public State getState() {
+            State state = finalState;
+            if (state != null) {
+                return state;
+            }
+            return lane.isPaused() ? State.PAUSED : State.RUNNING;
+        }
+
+        /**
+         * The exception that ended a failed export, or null
+         */
+        public Exception getFailure() {
+            return failure;
+        }
+
+        public int getCompletedSteps() {
+            return completedSteps.get();
+        }
+
+        public int getTotalSteps() {
+            return job.getTotalSteps();
+        }
+
+        /**
+         * Time from submission to the end of the export, or 0 while it runs
+         */
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /**
+         * Holds the photos of this event that have not started, leaving the workers to
+         * the other events. Photos in progress and the event's gallery step still finish.
+         */
+        public void pause() {
+            lane.setPaused(true);
+            fireChanged(this);
+        }
+
+        public void resume() {
+            lane.setPaused(false);
+            fireChanged(this);
+        }
+
+        /**
+         * Stops the export after the photos in progress; exporting the event again
+         * resumes where it stopped
+         */
+        public void cancel() {
+            if (getState().isFinished()) {
+                return;
+            }
+            job.cancel();
+            // Photos not yet started are dropped, even while paused or behind other events
+            lane.cancel();
+            fireChanged(this);
+        }
+
+        /**
+         * Whether cancel was called on an export that has not ended yet
+         */
+        public boolean isCancelling() {
+            return finalState == null && job.isCancelled();
+        }
+
+        public int getPriority() {
+            return lane.getPriority();
+        }
+
+        /**
+         * Higher priorities get the workers first; events of the same priority take turns
+         */
+        public void setPriority(int priority) {
+            lane.setPriority(priority);
+            fireChanged(this);
+        }
+
+        /**
+         * Waits until the export has ended
+         */
+        public void await() throws InterruptedException {
+            finished.await();
+        }
+    }
+}
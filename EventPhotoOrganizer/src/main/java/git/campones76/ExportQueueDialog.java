@@ -0,0 +1,174 @@
+package git.campones76;
+
+import javax.swing.*;
+import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Window listing the events of an {@link ExportQueue} with their progress. Each event
+ * can be paused, cancelled or moved ahead by raising its priority while the others
+ * keep exporting. Closing the window only hides it; the exports carry on.
+ */
+public class ExportQueueDialog extends JDialog {
+    private final Frame owner;
+    private final ExportQueue queue;
+    private final JProgressBar overallBar = new JProgressBar();
+    private final JLabel overallLabel = new JLabel(" ");
+    private final JPanel rowsPanel = new JPanel();
+    private final List<Row> rows = new ArrayList<>();
+    private final Timer refreshTimer;
+
+    public ExportQueueDialog(Frame owner, ExportQueue queue) {
+        super(owner, "Export Queue", false);
+        this.owner = owner;
+        this.queue = queue;
+
+        overallBar.setStringPainted(true);
+        JPanel overallPanel = new JPanel(new BorderLayout(5, 5));
+        overallPanel.add(overallLabel, BorderLayout.NORTH);
+        overallPanel.add(overallBar, BorderLayout.CENTER);
+
+        rowsPanel.setLayout(new BoxLayout(rowsPanel, BoxLayout.Y_AXIS));
+        JPanel rowsHolder = new JPanel(new BorderLayout());
+        rowsHolder.add(rowsPanel, BorderLayout.NORTH);
+        JScrollPane scrollPane = new JScrollPane(rowsHolder);
+        scrollPane.setBorder(BorderFactory.createEmptyBorder());
+
+        JPanel content = new JPanel(new BorderLayout(10, 10));
+        content.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+        content.add(overallPanel, BorderLayout.NORTH);
+        content.add(scrollPane, BorderLayout.CENTER);
+        setContentPane(content);
+        setSize(640, 360);
+
+        // Polled rather than pushed, so busy workers never flood the event thread
+        refreshTimer = new Timer(250, e -> refresh());
+        setDefaultCloseOperation(HIDE_ON_CLOSE);
+    }
+
+    /**
+     * Shows the window and starts following the queue
+     */
+    public void open() {
+        refresh();
+        if (!isVisible()) {
+            setLocationRelativeTo(owner);
+            setVisible(true);
+        }
+        refreshTimer.start();
+    }
+
+    private void refresh() {
+        List<ExportQueue.Entry> entries = queue.getEntries();
+        for (int i = rows.size(); i < entries.size(); i++) {
+            Row row = new Row(entries.get(i));
+            rows.add(row);
+            rowsPanel.add(row.panel);
+            rowsPanel.revalidate();
+        }
+        int done = 0;
+        for (Row row : rows) {
+            row.update();
+            if (row.entry.getState().isFinished()) {
+                done++;
+            }
+        }
+        int total = queue.getTotalSteps();
+        overallBar.setMaximum(Math.max(1, total));
+        overallBar.setValue(queue.getCompletedSteps());
+        overallLabel.setText(String.format("%d of %d events finished, %d workers, decode memory %s",
+                done, rows.size(), queue.getWorkerCount(), queue.getMemoryBudget().getSummary()));
+        if (done == rows.size() && !isVisible()) {
+            refreshTimer.stop();
+        }
+    }
+
+    /**
+     * Progress and controls of one event
+     */
+    private final class Row {
+        private final ExportQueue.Entry entry;
+        private final JPanel panel = new JPanel(new BorderLayout(5, 2));
+        private final JProgressBar progressBar = new JProgressBar();
+        private final JLabel stateLabel = new JLabel();
+        private final JButton pauseButton = new JButton("Pause");
+        private final JButton cancelButton = new JButton("Cancel");
+        private final JButton previewButton = new JButton("Preview");
+        private final JSpinner prioritySpinner;
+
+        private Row(ExportQueue.Entry entry) {
+            this.entry = entry;
+            progressBar.setStringPainted(true);
+            progressBar.setMaximum(Math.max(1, entry.getTotalSteps()));
+            prioritySpinner = new JSpinner(new SpinnerNumberModel(entry.getPriority(), -9, 9, 1));
+            prioritySpinner.setToolTipText("Events with a higher priority get the workers first");
+            prioritySpinner.addChangeListener(e -> entry.setPriority((Integer) prioritySpinner.getValue()));
+            pauseButton.addActionListener(e -> {
+                if (entry.getState() == ExportQueue.State.PAUSED) {
+                    entry.resume();
+                } else {
+                    entry.pause();
+                }
+                update();
+            });
+            cancelButton.addActionListener(e -> {
+                entry.cancel();
+                update();
+            });
+            previewButton.addActionListener(e -> previewGallery(entry.getDestDir()));
+
+            JPanel controls = new JPanel(new FlowLayout(FlowLayout.RIGHT, 5, 0));
+            controls.add(new JLabel("Priority:"));
+            controls.add(prioritySpinner);
+            controls.add(pauseButton);
+            controls.add(cancelButton);
+            controls.add(previewButton);
+
+            JPanel header = new JPanel(new BorderLayout(10, 0));
+            header.add(new JLabel(entry.getJob().getMetadata().getEventName()
+                    + " (" + entry.getDestDir().getName() + ")"), BorderLayout.CENTER);
+            header.add(stateLabel, BorderLayout.EAST);
+
+            panel.setBorder(BorderFactory.createEmptyBorder(5, 0, 5, 0));
+            panel.add(header, BorderLayout.NORTH);
+            panel.add(progressBar, BorderLayout.CENTER);
+            panel.add(controls, BorderLayout.SOUTH);
+            panel.setMaximumSize(new Dimension(Integer.MAX_VALUE, panel.getPreferredSize().height));
+        }
+
+        private void update() {
+            ExportQueue.State state = entry.getState();
+            progressBar.setValue(entry.getCompletedSteps());
+            progressBar.setString(String.format("%d of %d photos", (entry.getCompletedSteps() + 1) / 2,
+                    entry.getJob().getPhotoCount()));
+            if (entry.isCancelling()) {
+                stateLabel.setText("Cancelling after the photos in progress...");
+            } else if (state == ExportQueue.State.FAILED) {
+                stateLabel.setText("Failed: " + entry.getFailure().getMessage());
+            } else if (state == ExportQueue.State.DONE) {
+                stateLabel.setText(String.format("Done in %.1f s", entry.getElapsedNanos() / 1e9));
+            } else {
+                stateLabel.setText(state.toString());
+            }
+            pauseButton.setText(state == ExportQueue.State.PAUSED ? "Resume" : "Pause");
+            pauseButton.setEnabled(!state.isFinished() && !entry.isCancelling());
+            cancelButton.setEnabled(!state.isFinished() && !entry.isCancelling());
+            prioritySpinner.setEnabled(!state.isFinished());
+            previewButton.setEnabled(state == ExportQueue.State.DONE);
+        }
+    }
+
+    private void previewGallery(File galleryDir) {
+        try {
+            PreviewServerDialog.open(owner, galleryDir);
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(this,
+                    "Could not start the preview server: " + e.getMessage(),
+                    "Error",
+                    JOptionPane.ERROR_MESSAGE);
+        }
+    }
+}
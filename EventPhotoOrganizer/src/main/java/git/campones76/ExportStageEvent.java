@@ -0,0 +1,33 @@
+package git.campones76;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for one stage of an export, such as decoding one photo or
+ * generating the HTML. Recorded when the JVM runs with -XX:StartFlightRecording;
+ * otherwise creating and committing it costs next to nothing.
+ */
+@Name("git.campones76.ExportStage")
+@Label("Export Stage")
+@Category({"Event Photo Organizer", "Export"})
+@Description("Time spent in one stage of exporting a photo or the gallery")
+@StackTrace(false)
+public class ExportStageEvent extends jdk.jfr.Event {
+    @Label("Stage")
+    String stage;
+
+    @Label("File")
+    String file;
+
+    @Label("Pixels")
+    long pixels;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+}
@@ -0,0 +1,292 @@
+package git.campones76;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Places original photos into the pictures folder. Hard links and copy-on-write
+ * clones share the source's data blocks, so nothing is written when the source and
+ * destination are on the same filesystem. Every file falls back on its own to the
+ * next cheaper-to-support method: hard link, then clone, then a kernel-side copy
+ * with {@link FileChannel#transferTo}, or a write of the source's bytes when they are
+ * already in memory.
+ * Safe to use from several worker threads at once.
+ */
+public class FileTransfer {
+
+    public enum Mode {
+        HARDLINK("Hard link (same disk, no extra space)"),
+        REFLINK("Copy-on-write clone (APFS, Btrfs, XFS)"),
+        COPY("Copy");
+
+        private final String label;
+
+        Mode(String label) {
+            this.label = label;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    private final Mode mode;
+    private final AtomicInteger hardlinkCount = new AtomicInteger();
+    private final AtomicInteger reflinkCount = new AtomicInteger();
+    private final AtomicInteger copyCount = new AtomicInteger();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong bytesLinked = new AtomicLong();
+    // Set once the clone command turns out not to exist, so later files skip it
+    private volatile boolean reflinkUnavailable;
+    // Source and destination filesystems a clone already failed between, such as ext4 or
+    // two different disks; later files between them skip the clone command
+    private final Set<List<FileStore>> reflinkFailures = ConcurrentHashMap.newKeySet();
+
+    public FileTransfer(Mode mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * Places source at dest, replacing any existing file. The file is created under a
+     * temporary name and renamed into place, so dest is never seen half-written.
+     * @return the method that was actually used
+     */
+    public Mode transfer(File source, File dest) throws IOException {
+        return transfer(source, null, dest);
+    }
+
+    /**
+     * Like {@link #transfer(File, File)}; a copy writes content instead of reading the
+     * source again
+     * @param content the whole source file as read by {@link SourceBuffer}, or null
+     */
+    public Mode transfer(File source, ByteBuffer content, File dest) throws IOException {
+        return transfer(source, content, dest, null);
+    }
+
+    /**
+     * Like {@link #transfer(File, ByteBuffer, File)}, also computing a checksum when the
+     * source has to be copied from disk anyway
+     * @param digest if not null, receives the source's bytes when the file is copied
+     *               from disk (not for links, clones or a write of content), so the
+     *               checksum needs no second read
+     */
+    public Mode transfer(File source, ByteBuffer content, File dest, MessageDigest digest) throws IOException {
+        Path sourcePath = source.toPath();
+        Path tempPath = new File(dest.getPath() + ".tmp").toPath();
+        long size = content != null ? content.remaining() : Files.size(sourcePath);
+
+        Mode used;
+        if (mode == Mode.HARDLINK && tryHardlink(sourcePath, tempPath)) {
+            hardlinkCount.incrementAndGet();
+            bytesLinked.addAndGet(size);
+            used = Mode.HARDLINK;
+        } else if (mode != Mode.COPY && tryReflink(sourcePath, tempPath)) {
+            reflinkCount.incrementAndGet();
+            bytesLinked.addAndGet(size);
+            used = Mode.REFLINK;
+        } else {
+            if (content != null) {
+                write(content, tempPath);
+            } else if (digest != null) {
+                copyAndDigest(sourcePath, tempPath, size, digest);
+            } else {
+                copy(sourcePath, tempPath, size);
+            }
+            copyCount.incrementAndGet();
+            bytesWritten.addAndGet(size);
+            used = Mode.COPY;
+        }
+        Files.move(tempPath, dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return used;
+    }
+
+    private static boolean tryHardlink(Path source, Path dest) {
+        try {
+            Files.deleteIfExists(dest);
+            Files.createLink(dest, source);
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            // Different filesystem, or links not supported: fall back
+            return false;
+        }
+    }
+
+    private boolean tryReflink(Path source, Path dest) {
+        if (reflinkUnavailable) {
+            return false;
+        }
+        List<FileStore> stores;
+        try {
+            stores = List.of(Files.getFileStore(source), Files.getFileStore(dest.getParent()));
+        } catch (IOException e) {
+            stores = null;
+        }
+        if (stores != null && reflinkFailures.contains(stores)) {
+            return false;
+        }
+        String os = System.getProperty("os.name").toLowerCase();
+        ProcessBuilder builder;
+        if (os.contains("mac")) {
+            // clonefile(2) through cp -c
+            builder = new ProcessBuilder("cp", "-c", source.toString(), dest.toString());
+        } else if (os.contains("linux")) {
+            builder = new ProcessBuilder("cp", "--reflink=always", source.toString(), dest.toString());
+        } else {
+            reflinkUnavailable = true;
+            return false;
+        }
+
+        try {
+            Files.deleteIfExists(dest);
+            Process process = builder.redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+            if (!process.waitFor(30, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+                return false;
+            }
+            if (process.exitValue() == 0) {
+                return true;
+            }
+            // Cloning is not supported between these filesystems: stop trying for them
+            if (stores != null) {
+                reflinkFailures.add(stores);
+            } else {
+                reflinkUnavailable = true;
+            }
+            return false;
+        } catch (IOException e) {
+            reflinkUnavailable = true;
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Copies inside the kernel where the platform supports it, without passing the
+     * data through Java heap buffers
+     */
+    private static void copy(Path source, Path dest, long size) throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(dest, StandardOpenOption.WRITE,
+                     StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long position = 0;
+            while (position < size) {
+                long transferred = in.transferTo(position, size - position, out);
+                if (transferred <= 0) {
+                    break;
+                }
+                position += transferred;
+            }
+            if (position < size) {
+                throw new IOException("Copy of " + source.getFileName() + " stopped after "
+                        + position + " of " + size + " bytes");
+            }
+        }
+    }
+
+    /**
+     * Copies through a Java buffer, feeding every byte to digest on the way
+     */
+    private static void copyAndDigest(Path source, Path dest, long size, MessageDigest digest)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(256 * 1024);
+        long position = 0;
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(dest, StandardOpenOption.WRITE,
+                     StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (position < size && in.read(buffer) > 0) {
+                buffer.flip();
+                digest.update(buffer.duplicate());
+                while (buffer.hasRemaining()) {
+                    position += out.write(buffer);
+                }
+                buffer.clear();
+            }
+        }
+        if (position < size) {
+            throw new IOException("Copy of " + source.getFileName() + " stopped after "
+                    + position + " of " + size + " bytes");
+        }
+    }
+
+    private static void write(ByteBuffer content, Path dest) throws IOException {
+        ByteBuffer data = content.duplicate();
+        try (FileChannel out = FileChannel.open(dest, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (data.hasRemaining()) {
+                out.write(data);
+            }
+        }
+    }
+
+    /**
+     * The method tried first for every file
+     */
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Bytes of photo data actually written to disk (copies only)
+     */
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    /**
+     * Human-readable totals, e.g. "12 hard links, 3 copies (45.2 MB written, 310.0 MB shared)"
+     */
+    public String getSummary() {
+        StringBuilder sb = new StringBuilder();
+        appendCount(sb, hardlinkCount.get(), "hard link", "hard links");
+        appendCount(sb, reflinkCount.get(), "clone", "clones");
+        appendCount(sb, copyCount.get(), "copy", "copies");
+        if (sb.length() == 0) {
+            return "no files transferred";
+        }
+        sb.append(" (").append(formatBytes(bytesWritten.get())).append(" written");
+        if (bytesLinked.get() > 0) {
+            sb.append(", ").append(formatBytes(bytesLinked.get())).append(" shared");
+        }
+        return sb.append(")").toString();
+    }
+
+    private static void appendCount(StringBuilder sb, int count, String singular, String plural) {
+        if (count == 0) {
+            return;
+        }
+        if (sb.length() > 0) {
+            sb.append(", ");
+        }
+        sb.append(count).append(' ').append(count == 1 ? singular : plural);
+    }
+
+    static String formatBytes(long bytes) {
+        if (bytes < 1024 * 1024) {
+            return String.format("%.1f KB", bytes / 1024.0);
+        }
+        if (bytes < 1024L * 1024 * 1024) {
+            return String.format("%.1f MB", bytes / (1024.0 * 1024));
+        }
+        return String.format("%.2f GB", bytes / (1024.0 * 1024 * 1024));
+    }
+}
@@ -1,5 +1,13 @@
 package git.campones76;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
 /**
  * Utility methods for file operations
  */
@@ -14,4 +22,59 @@ public class FileUtils {
         int lastDot = filename.lastIndexOf('.');
         return (lastDot > 0) ? filename.substring(lastDot + 1) : "jpg";
     }
-}
\ No newline at end of file
+
+    /**
+     * Checks whether a filename has one of the image extensions the organizer imports
+     * @param filename the filename to check
+     * @return true for jpg, jpeg, png, gif, bmp and webp files (any case)
+     */
+    public static boolean isSupportedImage(String filename) {
+        String lower = filename.toLowerCase();
+        return lower.endsWith(".jpg") || lower.endsWith(".jpeg") ||
+                lower.endsWith(".png") || lower.endsWith(".gif") ||
+                lower.endsWith(".bmp") || lower.endsWith(".webp");
+    }
+
+    /**
+     * Computes the SHA-256 hash of a file's content
+     * @return the hash as lowercase hex
+     */
+    public static String sha256(File file) throws IOException {
+        MessageDigest digest = newSha256();
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Like {@link #sha256(File)}, for a file already read into memory
+     * @param content the file's bytes from position to limit; not modified
+     */
+    public static String sha256(ByteBuffer content) {
+        MessageDigest digest = newSha256();
+        digest.update(content.duplicate());
+        return toHex(digest.digest());
+    }
+
+    static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}
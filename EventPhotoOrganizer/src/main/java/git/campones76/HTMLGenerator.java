@@ -4,25 +4,175 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Generates the HTML gallery file
  */
 public class HTMLGenerator {
+    private static final int THUMBNAIL_WIDTH = 220;
+    private static final int THUMBNAIL_HEIGHT = 180;
+    private static final int THUMBNAIL_GUTTER = 20;
+    // Edge of the thumbnails in the viewer's filmstrip (viewerGalleryTWidth/THeight)
+    private static final int FILMSTRIP_THUMBNAIL_SIZE = 60;
+    // Widest/tallest span of any tile in galleryMosaic (w: 2 / h: 2)
+    private static final int MOSAIC_MAX_SPAN = 2;
+    // Photos inlined in index.html and per page script; larger events load the rest on scroll
+    private static final int GALLERY_PAGE_SIZE = 200;
+    public static final String GALLERY_DATA_DIR = "data";
+
+    private int[] thumbnailLadder = new int[0];
+    private Map<VendorLibraries.Library, String> libraryUrls = VendorLibraries.cdnUrls();
+    private List<ThumbnailPreview> previews = Collections.emptyList();
+
+    /**
+     * Width in pixels of the largest mosaic tile the gallery displays
+     */
+    public static int getLargestTileWidth() {
+        return MOSAIC_MAX_SPAN * THUMBNAIL_WIDTH + (MOSAIC_MAX_SPAN - 1) * THUMBNAIL_GUTTER;
+    }
+
+    /**
+     * Height in pixels of the largest mosaic tile the gallery displays
+     */
+    public static int getLargestTileHeight() {
+        return MOSAIC_MAX_SPAN * THUMBNAIL_HEIGHT + (MOSAIC_MAX_SPAN - 1) * THUMBNAIL_GUTTER;
+    }
+
+    /**
+     * Long edges of the extra thumbnail sizes in thumbnails/&lt;edge&gt;/; the page
+     * picks the smallest one that is sharp on the visitor's screen
+     */
+    public void setThumbnailLadder(int[] thumbnailLadder) {
+        this.thumbnailLadder = thumbnailLadder.clone();
+        Arrays.sort(this.thumbnailLadder);
+    }
+
+    /**
+     * URLs the page loads jQuery and nanogallery2 from; the cdnjs CDN by default
+     */
+    public void setLibraryUrls(Map<VendorLibraries.Library, String> libraryUrls) {
+        this.libraryUrls = libraryUrls;
+    }
+
+    /**
+     * Thumbnail dimensions and placeholders, in the same order as the photo filenames;
+     * photos without one show the theme's grey tile until their thumbnail loads
+     */
+    public void setPreviews(List<ThumbnailPreview> previews) {
+        this.previews = previews;
+    }
+
+    private ThumbnailPreview getPreview(int index) {
+        return index < previews.size() ? previews.get(index) : null;
+    }
 
     public void generateGallery(File destDir, EventMetadata metadata,
                                 List<String> photoFilenames) throws IOException {
+        int pageCount = writeGalleryPages(destDir, photoFilenames);
         File htmlFile = new File(destDir, "index.html");
         try (PrintWriter w = new PrintWriter(new FileWriter(htmlFile))) {
             writeHeader(w, metadata);
-            writeBody(w, metadata, photoFilenames);
+            writeBody(w, metadata, photoFilenames, pageCount);
             writeFooter(w);
         }
     }
 
+    /**
+     * Writes every page after the first as data/items-&lt;n&gt;.js, one file at a time,
+     * and removes pages left over from a previous, larger export. A page is a script
+     * passing its items to galleryPageLoaded rather than a JSON file, because browsers
+     * block fetching JSON for a gallery opened straight from disk (file://) but still
+     * run scripts from there.
+     * @return the number of pages, including the first one inlined in index.html
+     */
+    private int writeGalleryPages(File destDir, List<String> photoFilenames) throws IOException {
+        File dataDir = new File(destDir, GALLERY_DATA_DIR);
+        // .json pages were written by earlier versions
+        File[] oldPages = dataDir.listFiles((dir, name) -> name.startsWith("items-")
+                && (name.endsWith(".js") || name.endsWith(".json")));
+        if (oldPages != null) {
+            for (File oldPage : oldPages) {
+                if (!oldPage.delete()) {
+                    System.err.println("Could not remove old gallery page: " + oldPage.getPath());
+                }
+            }
+        }
+
+        int pageCount = Math.max(1, (photoFilenames.size() + GALLERY_PAGE_SIZE - 1) / GALLERY_PAGE_SIZE);
+        if (pageCount > 1) {
+            dataDir.mkdirs();
+        }
+        for (int page = 2; page <= pageCount; page++) {
+            File pageFile = new File(dataDir, "items-" + page + ".js");
+            int end = Math.min(photoFilenames.size(), page * GALLERY_PAGE_SIZE);
+            try (Writer out = Files.newBufferedWriter(pageFile.toPath(), StandardCharsets.UTF_8)) {
+                out.write("galleryPageLoaded([\n");
+                for (int i = (page - 1) * GALLERY_PAGE_SIZE; i < end; i++) {
+                    String fn = photoFilenames.get(i);
+                    out.write("{\"id\":" + (i + 1)
+                            + ",\"src\":" + toJsonString(PhotoProcessor.PICTURES_DIR + "/" + fn)
+                            + ",\"srct\":" + toJsonString(PhotoProcessor.getThumbnailName(fn))
+                            + previewJson(getPreview(i)) + "}"
+                            + (i < end - 1 ? ",\n" : "\n"));
+                }
+                out.write("]);\n");
+            }
+        }
+        return pageCount;
+    }
+
+    private static String previewJson(ThumbnailPreview preview) {
+        if (preview == null) {
+            return "";
+        }
+        return ",\"w\":" + preview.getWidth() + ",\"h\":" + preview.getHeight()
+                + ",\"dc\":" + toJsonString(preview.getDominantColor())
+                + ",\"dcGIF\":" + toJsonString(preview.getPlaceholderGif());
+    }
+
+    /**
+     * nanogallery2 item properties for the tile size and the placeholder shown until
+     * the thumbnail has loaded
+     */
+    private static String previewProperties(ThumbnailPreview preview) {
+        if (preview == null) {
+            return "";
+        }
+        return ", imgtWidth: " + preview.getWidth() + ", imgtHeight: " + preview.getHeight()
+                + ", dc: '" + preview.getDominantColor() + "', dcGIF: '" + preview.getPlaceholderGif() + "'";
+    }
+
+    /**
+     * Escapes value for a single-quoted JavaScript string
+     */
+    private static String toJsString(String value) {
+        return value.replace("\\", "\\\\").replace("'", "\\'");
+    }
+
+    private static String toJsonString(String value) {
+        StringBuilder sb = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
     private void writeHeader(PrintWriter w, EventMetadata metadata) {
         w.println("<!DOCTYPE html>\n<html lang=\"en\">\n<head>\n    <meta charset=\"UTF-8\">");
         w.println("    <meta name=\"viewport\" content=\"width=device-width, initial-scale=1.0\">");
@@ -35,7 +185,7 @@ public class HTMLGenerator {
         w.println("    <meta http-equiv=\"X-Frame-Options\" content=\"SAMEORIGIN\">");
         w.println("    <meta name=\"referrer\" content=\"no-referrer-when-downgrade\">\n    ");
         w.println("    <!-- nanogallery2 CSS -->");
-        w.println("    <link href=\"https://cdnjs.cloudflare.com/ajax/libs/nanogallery2/3.0.5/css/nanogallery2.min.css\" rel=\"stylesheet\">\n    ");
+        w.println("    <link href=\"" + libraryUrls.get(VendorLibraries.Library.NANOGALLERY2_CSS) + "\" rel=\"stylesheet\">\n    ");
         w.println("    <link rel=\"stylesheet\" type=\"text/css\" href=\"assets/css/global.css\">\n    ");
         writeStyles(w);
         w.println("</head>");
@@ -60,7 +210,7 @@ public class HTMLGenerator {
         w.println("    </style>");
     }
 
-    private void writeBody(PrintWriter w, EventMetadata metadata, List<String> photoFilenames) {
+    private void writeBody(PrintWriter w, EventMetadata metadata, List<String> photoFilenames, int pageCount) {
         w.println("<body>");
         w.println("    <div id=\"header\">");
         w.println("        <div id=\"headerinfo1\">");
@@ -72,38 +222,139 @@ public class HTMLGenerator {
         w.println("    </div>\n");
         w.println("    <div id=\"gallery-container\">");
         w.println("        <div id=\"nanogallery2\"></div>");
+        w.println("        <p id=\"gallery-notice\" style=\"display: none; text-align: center; color: #a00;\"></p>");
         w.println("    </div>\n");
         w.println("    <div id=\"footer\">");
         w.println("        <p class=\"index\"><a href=\"https://www.gabefernando.net/previous-shows\">Go Back</a></p>");
         w.println("    </div>\n");
 
-        writeScripts(w, photoFilenames);
+        writeScripts(w, photoFilenames, pageCount);
         w.println("</body>\n</html>");
     }
 
-    private void writeScripts(PrintWriter w, List<String> photoFilenames) {
+    private void writeScripts(PrintWriter w, List<String> photoFilenames, int pageCount) {
         w.println("    <!-- jQuery -->");
-        w.println("    <script src=\"https://cdnjs.cloudflare.com/ajax/libs/jquery/3.6.0/jquery.min.js\"></script>\n    ");
+        w.println("    <script src=\"" + libraryUrls.get(VendorLibraries.Library.JQUERY) + "\"></script>\n    ");
         w.println("    <!-- nanogallery2 JS -->");
-        w.println("    <script src=\"https://cdnjs.cloudflare.com/ajax/libs/nanogallery2/3.0.5/jquery.nanogallery2.min.js\"></script>\n");
+        w.println("    <script src=\"" + libraryUrls.get(VendorLibraries.Library.NANOGALLERY2_JS) + "\"></script>\n");
         w.println("    <script>");
+        writeThumbnailPicker(w);
         w.println("        $(document).ready(function() {");
         w.println("            $(\"#nanogallery2\").nanogallery2({");
         w.println("                items: [");
 
-        for (int i = 0; i < photoFilenames.size(); i++) {
-            String fn = photoFilenames.get(i).replace("\\", "\\\\").replace("'", "\\'");
-            String tn = fn.replaceAll("\\.(jpeg|jpg|png|gif|bmp)$", ".webp");
-            w.println("                    { src: 'pictures/" + fn + "', srct: 'thumbnails/"
-                    + tn + "', title: '', description: '' }"
-                    + (i < photoFilenames.size() - 1 ? "," : ""));
+        // Only the first page is inlined, so the page size of index.html does not grow with the event
+        int inlined = Math.min(photoFilenames.size(), GALLERY_PAGE_SIZE);
+        for (int i = 0; i < inlined; i++) {
+            String fn = toJsString(photoFilenames.get(i));
+            String tn = toJsString(PhotoProcessor.getThumbnailName(photoFilenames.get(i)));
+            w.println("                    { ID: " + (i + 1) + ", src: 'pictures/" + fn + "', srct: "
+                    + thumbnailUrl("'" + tn + "'") + previewProperties(getPreview(i))
+                    + ", title: '', description: '' }"
+                    + (i < inlined - 1 ? "," : ""));
         }
 
         writeGalleryConfig(w);
+        writePageLoader(w, pageCount);
         w.println("        });");
         w.println("    </script>");
     }
 
+    /**
+     * JavaScript expression for the URL of a thumbnail, given an expression for its file name
+     */
+    private String thumbnailUrl(String nameExpression) {
+        return thumbnailLadder.length > 0 ? "thumbnail(" + nameExpression + ")" : "'thumbnails/' + " + nameExpression;
+    }
+
+    /**
+     * Writes the script that loads the remaining page scripts, one at a time, when the
+     * visitor scrolls near the end of the page or browses the gallery, and adds their
+     * photos to it. A page that fails to load is reported on the page and tried again
+     * on the next scroll, so photos never go missing silently.
+     */
+    private void writePageLoader(PrintWriter w, int pageCount) {
+        if (pageCount <= 1) {
+            return;
+        }
+        w.println("            var galleryPageCount = " + pageCount + ", nextGalleryPage = 2, loadingGalleryPage = false;");
+        w.println("            window.galleryPageLoaded = function(items) {");
+        w.println("                var gallery = $(\"#nanogallery2\");");
+        w.println("                var instance = gallery.nanogallery2('instance');");
+        w.println("                $.each(items, function(i, item) {");
+        w.println("                    var newItem = NGY2Item.New(instance, '', '', item.id, '0', 'image', '');");
+        w.println("                    newItem.setMediaURL(item.src, 'img');");
+        w.println("                    newItem.thumbSet(" + thumbnailUrl("item.srct") + ", item.w || 0, item.h || 0);");
+        w.println("                    // Inline items get this prefix from nanogallery2's own dcGIF handling");
+        w.println("                    if (item.dc) { newItem.imageDominantColor = item.dc; newItem.imageDominantColors = 'data:image/gif;base64,' + item.dcGIF; }");
+        w.println("                    newItem.addToGOM();");
+        w.println("                });");
+        w.println("                gallery.nanogallery2('resize');");
+        w.println("                $(\"#gallery-notice\").hide();");
+        w.println("                nextGalleryPage++;");
+        w.println("                loadingGalleryPage = false;");
+        w.println("            };");
+        w.println("            function loadNextGalleryPage() {");
+        w.println("                if (loadingGalleryPage || nextGalleryPage > galleryPageCount) { return; }");
+        w.println("                loadingGalleryPage = true;");
+        w.println("                var script = document.createElement('script');");
+        w.println("                script.src = '" + GALLERY_DATA_DIR + "/items-' + nextGalleryPage + '.js';");
+        w.println("                script.onerror = function() {");
+        w.println("                    loadingGalleryPage = false;");
+        w.println("                    $(\"#gallery-notice\").text('Could not load photos ' + ((nextGalleryPage - 1) * "
+                + GALLERY_PAGE_SIZE + " + 1) + ' and later. Scroll again or reload the page to retry.').show();");
+        w.println("                };");
+        w.println("                document.body.appendChild(script);");
+        w.println("            }");
+        w.println("            function loadNearEnd() {");
+        w.println("                if ($(window).scrollTop() + $(window).height() >= $(document).height() - 1000) { loadNextGalleryPage(); }");
+        w.println("            }");
+        w.println("            $(window).on('scroll resize', loadNearEnd);");
+        w.println("            // The gallery pages through its rows, so browsing it also asks for more photos");
+        w.println("            $(\"#nanogallery2\").on('click', loadNextGalleryPage);");
+    }
+
+    /**
+     * Writes thumbnail(name), which returns the URL of the ladder size for a grid tile,
+     * and the script that moves the viewer's filmstrip to its own, smaller size. Each
+     * display slot gets the smallest ladder size that covers it at the screen's pixel
+     * density, or the largest ladder size when none does.
+     */
+    private void writeThumbnailPicker(PrintWriter w) {
+        if (thumbnailLadder.length == 0) {
+            return;
+        }
+        StringBuilder ladder = new StringBuilder();
+        for (int edge : thumbnailLadder) {
+            ladder.append(ladder.length() > 0 ? ", " : "").append(edge);
+        }
+        int largestTile = Math.max(getLargestTileWidth(), getLargestTileHeight());
+        w.println("        var thumbnailLadder = [" + ladder + "];");
+        w.println("        function thumbnailFolderFor(size) {");
+        w.println("            var needed = Math.ceil(size * (window.devicePixelRatio || 1));");
+        w.println("            for (var i = 0; i < thumbnailLadder.length; i++) {");
+        w.println("                if (thumbnailLadder[i] >= needed) { return 'thumbnails/' + thumbnailLadder[i] + '/'; }");
+        w.println("            }");
+        w.println("            return 'thumbnails/' + thumbnailLadder[thumbnailLadder.length - 1] + '/';");
+        w.println("        }");
+        w.println("        var gridThumbnailFolder = thumbnailFolderFor(Math.min(" + largestTile + ", window.innerWidth));");
+        w.println("        var filmstripThumbnailFolder = thumbnailFolderFor(" + FILMSTRIP_THUMBNAIL_SIZE + ");");
+        w.println("        function thumbnail(name) { return gridThumbnailFolder + name; }");
+        w.println("        // nanogallery2 builds the filmstrip from the grid URLs; point its tiles at the filmstrip size");
+        w.println("        if (window.MutationObserver && filmstripThumbnailFolder !== gridThumbnailFolder) {");
+        w.println("            new MutationObserver(function(mutations) {");
+        w.println("                $.each(mutations, function(i, mutation) {");
+        w.println("                    $(mutation.addedNodes).find('.nGY2VThumbnail').addBack('.nGY2VThumbnail').each(function() {");
+        w.println("                        var image = this.style.backgroundImage;");
+        w.println("                        if (image && image.indexOf(gridThumbnailFolder) >= 0) {");
+        w.println("                            this.style.backgroundImage = image.replace(gridThumbnailFolder, filmstripThumbnailFolder);");
+        w.println("                        }");
+        w.println("                    });");
+        w.println("                });");
+        w.println("            }).observe(document.documentElement, { childList: true, subtree: true });");
+        w.println("        }\n");
+    }
+
     private void writeGalleryConfig(PrintWriter w) {
         w.println("                ],\n                thumbnailDisplayOrder: 'random',");
         w.println("                galleryMosaic : [");
@@ -114,14 +365,17 @@ public class HTMLGenerator {
         w.println("                ],");
         w.println("                galleryMosaicXS : [ { w: 2, h: 2, c: 1, r: 1 }, { w: 1, h: 1, c: 3, r: 1 }, { w: 1, h: 1, c: 3, r: 2 }, { w: 1, h: 2, c: 1, r: 3 }, { w: 2, h: 1, c: 2, r: 3 }, { w: 1, h: 1, c: 2, r: 4 }, { w: 1, h: 1, c: 3, r: 4 } ],");
         w.println("                galleryMosaicSM : [ { w: 2, h: 2, c: 1, r: 1 }, { w: 1, h: 1, c: 3, r: 1 }, { w: 1, h: 1, c: 3, r: 2 }, { w: 1, h: 2, c: 1, r: 3 }, { w: 2, h: 1, c: 2, r: 3 }, { w: 1, h: 1, c: 2, r: 4 }, { w: 1, h: 1, c: 3, r: 4 } ],");
-        w.println("                thumbnailHeight: 180, thumbnailWidth: 220, thumbnailAlignment: 'scaled',");
+        w.println("                thumbnailHeight: " + THUMBNAIL_HEIGHT + ", thumbnailWidth: " + THUMBNAIL_WIDTH
+                + ", thumbnailAlignment: 'scaled',");
         w.println("                galleryTheme: { thumbnail: { background: '#666', borderColor: '#000', borderRadius: '0px' }, thumbnailIcon: { color: '#fff' } },");
         w.println("                galleryDisplayMode: 'rows', galleryMaxRows: 10, gallerySorting: 'random',");
-        w.println("                thumbnailGutterWidth: 20, thumbnailGutterHeight: 20, thumbnailBorderVertical: 0, thumbnailBorderHorizontal: 0,");
+        w.println("                thumbnailGutterWidth: " + THUMBNAIL_GUTTER + ", thumbnailGutterHeight: " + THUMBNAIL_GUTTER
+                + ", thumbnailBorderVertical: 0, thumbnailBorderHorizontal: 0,");
         w.println("                thumbnailHoverEffect2: 'scale120', touchAnimation: true, touchAutoOpenDelay: 500,");
         w.println("                viewerTools: { topLeft: 'label', topRight: 'downloadButton, closeButton' },");
         w.println("                viewerToolbar: { display: true, standard: 'label, pageCounter, downloadButton', minimized: 'label, pageCounter' },");
-        w.println("                viewerGallery: 'bottom', viewerGalleryTWidth: 60, viewerGalleryTHeight: 60, viewerDisplayLogo: false,");
+        w.println("                viewerGallery: 'bottom', viewerGalleryTWidth: " + FILMSTRIP_THUMBNAIL_SIZE
+                + ", viewerGalleryTHeight: " + FILMSTRIP_THUMBNAIL_SIZE + ", viewerDisplayLogo: false,");
         w.println("                breakpointSizeSM: 500, breakpointSizeME: 700, breakpointSizeLA: 1000, breakpointSizeXL: 1200");
         w.println("            });");
     }
@@ -0,0 +1,85 @@
+package git.campones76;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Multi-index hash over 64-bit perceptual hashes for finding every hash within a
+ * fixed Hamming distance. The bits are split into maxDistance + 1 bands; two hashes
+ * that differ in at most maxDistance bits must agree exactly on at least one band, so
+ * a lookup only compares against the photos sharing a band instead of every photo.
+ * Not safe for concurrent modification.
+ */
+public class HammingIndex<T> {
+    private final int maxDistance;
+    private final int[] bandShifts;
+    private final long[] bandMasks;
+    private final List<Map<Long, List<Integer>>> bands = new ArrayList<>();
+    private long[] hashes = new long[64];
+    private final List<T> values = new ArrayList<>();
+
+    /**
+     * @param maxDistance the largest distance {@link #search} will be asked for
+     */
+    public HammingIndex(int maxDistance) {
+        this.maxDistance = maxDistance;
+        // Past 63 bits every hash is a match and the bands would be empty
+        int bandCount = maxDistance < 64 ? maxDistance + 1 : 0;
+        bandShifts = new int[bandCount];
+        bandMasks = new long[bandCount];
+        int shift = 0;
+        for (int i = 0; i < bandCount; i++) {
+            int width = 64 / bandCount + (i < 64 % bandCount ? 1 : 0);
+            bandShifts[i] = shift;
+            bandMasks[i] = width == 64 ? -1L : (1L << width) - 1;
+            shift += width;
+            bands.add(new HashMap<>());
+        }
+    }
+
+    public void add(long hash, T value) {
+        int index = values.size();
+        if (index == hashes.length) {
+            hashes = Arrays.copyOf(hashes, index * 2);
+        }
+        hashes[index] = hash;
+        values.add(value);
+        for (int i = 0; i < bandShifts.length; i++) {
+            bands.get(i).computeIfAbsent((hash >>> bandShifts[i]) & bandMasks[i], k -> new ArrayList<>(1)).add(index);
+        }
+    }
+
+    /**
+     * Every value whose hash is at most the index's maxDistance bits away from hash
+     */
+    public List<T> search(long hash) {
+        List<T> results = new ArrayList<>();
+        if (bandShifts.length == 0) {
+            results.addAll(values);
+            return results;
+        }
+        boolean[] seen = new boolean[values.size()];
+        for (int i = 0; i < bandShifts.length; i++) {
+            List<Integer> candidates = bands.get(i).get((hash >>> bandShifts[i]) & bandMasks[i]);
+            if (candidates == null) {
+                continue;
+            }
+            for (int candidate : candidates) {
+                if (!seen[candidate]) {
+                    seen[candidate] = true;
+                    if (PerceptualHash.distance(hash, hashes[candidate]) <= maxDistance) {
+                        results.add(values.get(candidate));
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    public int size() {
+        return values.size();
+    }
+}
@@ -0,0 +1,216 @@
+package git.campones76;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Reads the marker segments of a JPEG stream up to the start of the compressed
+ * image data (SOS), without decoding anything. Keeps the frame dimensions and the
+ * TIFF payloads of the Exif (APP1) and Multi-Picture (APP2) segments.
+ */
+final class JpegHeader {
+    private static final byte[] EXIF_ID = "Exif\0\0".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] MPF_ID = "MPF\0".getBytes(StandardCharsets.ISO_8859_1);
+
+    private int width = -1;
+    private int height = -1;
+    private byte[] exifData;
+    private long exifOffset;
+    private byte[] mpfData;
+    private long mpfOffset;
+
+    private JpegHeader() {
+    }
+
+    /**
+     * @return the header, or null if the file is not a JPEG
+     */
+    static JpegHeader read(File file) throws IOException {
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            return read(in, false);
+        }
+    }
+
+    /**
+     * Reads a header from the current position of a stream
+     * @param stopAfterExif stop as soon as the Exif segment has been read, which
+     *                      usually means only the first few KB are touched
+     * @return the header, or null if the stream does not start with a JPEG SOI marker
+     */
+    static JpegHeader read(InputStream stream, boolean stopAfterExif) throws IOException {
+        CountingInput in = new CountingInput(stream);
+        if (in.readUnsignedByte() != 0xFF || in.readUnsignedByte() != 0xD8) {
+            return null;
+        }
+
+        JpegHeader header = new JpegHeader();
+        while (true) {
+            int marker = in.readMarker();
+            if (marker == 0xDA || marker == 0xD9) {
+                // Start of scan or end of image: no more metadata
+                break;
+            }
+            if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD8)) {
+                // Standalone markers carry no length
+                continue;
+            }
+
+            int length = in.readUnsignedShort() - 2;
+            if (length < 0) {
+                throw new IOException("Malformed JPEG segment length");
+            }
+
+            if (isStartOfFrame(marker)) {
+                byte[] frame = in.readBytes(length);
+                if (frame.length >= 5) {
+                    header.height = ((frame[1] & 0xFF) << 8) | (frame[2] & 0xFF);
+                    header.width = ((frame[3] & 0xFF) << 8) | (frame[4] & 0xFF);
+                }
+            } else if (marker == 0xE1 && header.exifData == null) {
+                long payloadStart = in.position();
+                byte[] payload = in.readBytes(length);
+                if (startsWith(payload, EXIF_ID)) {
+                    header.exifData = copyFrom(payload, EXIF_ID.length);
+                    header.exifOffset = payloadStart + EXIF_ID.length;
+                    if (stopAfterExif) {
+                        break;
+                    }
+                }
+            } else if (marker == 0xE2 && header.mpfData == null && !stopAfterExif) {
+                long payloadStart = in.position();
+                byte[] payload = in.readBytes(length);
+                if (startsWith(payload, MPF_ID)) {
+                    header.mpfData = copyFrom(payload, MPF_ID.length);
+                    header.mpfOffset = payloadStart + MPF_ID.length;
+                }
+            } else {
+                in.skipBytes(length);
+            }
+        }
+        return header;
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    /**
+     * TIFF structure from the Exif segment, or null if there is none
+     */
+    byte[] getExifData() {
+        return exifData;
+    }
+
+    /**
+     * Position of the Exif TIFF header, relative to where reading started
+     */
+    long getExifOffset() {
+        return exifOffset;
+    }
+
+    /**
+     * TIFF structure from the Multi-Picture Format segment, or null if there is none
+     */
+    byte[] getMpfData() {
+        return mpfData;
+    }
+
+    /**
+     * Position of the MPF TIFF header, relative to where reading started
+     */
+    long getMpfOffset() {
+        return mpfOffset;
+    }
+
+    private static boolean isStartOfFrame(int marker) {
+        return marker >= 0xC0 && marker <= 0xCF
+                && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+    }
+
+    private static boolean startsWith(byte[] data, byte[] prefix) {
+        if (data.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] copyFrom(byte[] data, int start) {
+        byte[] copy = new byte[data.length - start];
+        System.arraycopy(data, start, copy, 0, copy.length);
+        return copy;
+    }
+
+    /**
+     * Data input that tracks how many bytes have been consumed
+     */
+    private static final class CountingInput {
+        private final DataInputStream in;
+        private long position;
+
+        CountingInput(InputStream stream) {
+            this.in = new DataInputStream(new BufferedInputStream(stream, 8192));
+        }
+
+        long position() {
+            return position;
+        }
+
+        int readUnsignedByte() throws IOException {
+            position++;
+            return in.readUnsignedByte();
+        }
+
+        int readUnsignedShort() throws IOException {
+            position += 2;
+            return in.readUnsignedShort();
+        }
+
+        /**
+         * Reads the next marker code, skipping any fill bytes before it
+         */
+        int readMarker() throws IOException {
+            int b = readUnsignedByte();
+            while (b != 0xFF) {
+                b = readUnsignedByte();
+            }
+            while (b == 0xFF) {
+                b = readUnsignedByte();
+            }
+            return b;
+        }
+
+        byte[] readBytes(int length) throws IOException {
+            byte[] data = new byte[length];
+            in.readFully(data);
+            position += length;
+            return data;
+        }
+
+        void skipBytes(int length) throws IOException {
+            int remaining = length;
+            while (remaining > 0) {
+                int skipped = in.skipBytes(remaining);
+                if (skipped <= 0) {
+                    throw new EOFException();
+                }
+                remaining -= skipped;
+            }
+            position += length;
+        }
+    }
+}
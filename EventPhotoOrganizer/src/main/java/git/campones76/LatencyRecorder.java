@@ -0,0 +1,107 @@
+package git.campones76;
+
+import java.util.Arrays;
+
+/**
+ * Collects durations into a fixed-size log-linear histogram and reports percentiles
+ * over all of them. Memory and query time stay the same however many durations are
+ * recorded; percentiles are accurate to about 3% (32 buckets per power of two), the
+ * count, total and maximum are exact. Safe to use from several threads at once.
+ */
+public class LatencyRecorder {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Values below SUB_BUCKETS get a bucket each, then SUB_BUCKETS per power of two up to 2^62
+    private static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final long[] buckets = new long[BUCKETS];
+    private int count;
+    private long total;
+    private long max;
+
+    /**
+     * Records one duration
+     */
+    public synchronized void record(long nanos) {
+        long value = Math.max(0, nanos);
+        buckets[bucketOf(value)]++;
+        count++;
+        total += value;
+        max = Math.max(max, value);
+    }
+
+    public synchronized int getCount() {
+        return count;
+    }
+
+    /**
+     * Sum of the recorded durations in nanoseconds
+     */
+    public synchronized long getTotal() {
+        return total;
+    }
+
+    /**
+     * Nearest-rank percentile of the recorded durations, rounded up to its bucket's
+     * upper bound
+     * @param percentile between 0 and 100
+     * @return the duration in nanoseconds, or 0 if nothing was recorded
+     */
+    public synchronized long getPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        if (rank >= count) {
+            return max;
+        }
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                return Math.min(max, upperBound(i));
+            }
+        }
+        return max;
+    }
+
+    public synchronized void reset() {
+        Arrays.fill(buckets, 0);
+        count = 0;
+        total = 0;
+        max = 0;
+    }
+
+    /**
+     * Count, p50, p95, p99 and max in milliseconds, for display
+     */
+    public synchronized String getSummary() {
+        if (count == 0) {
+            return "no samples";
+        }
+        return String.format("count %d, p50 %.2f ms, p95 %.2f ms, p99 %.2f ms, max %.2f ms",
+                count, getPercentile(50) / 1e6, getPercentile(95) / 1e6,
+                getPercentile(99) / 1e6, max / 1e6);
+    }
+
+    private static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        return SUB_BUCKETS + shift * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    /**
+     * Largest value that falls into bucket
+     */
+    private static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+        long subBucket = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+        return ((SUB_BUCKETS + subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,76 @@
+package git.campones76;
+
+/**
+ * Limits how many bytes of decoded pixels the export workers hold at the same time.
+ * Each worker reserves the estimated size of its decode before starting it and waits
+ * while the budget is used up, so a batch of very large images runs fewer decodes in
+ * parallel instead of running out of heap.
+ * <p>
+ * A single reservation larger than the whole budget is allowed once nothing else is
+ * reserved, so one oversized image still gets processed, on its own.
+ */
+public class MemoryBudget {
+    private final long budgetBytes;
+    private long usedBytes;
+    private long peakBytes;
+
+    /**
+     * @param budgetBytes bytes of decoded pixels allowed at the same time
+     */
+    public MemoryBudget(long budgetBytes) {
+        this.budgetBytes = Math.max(1, budgetBytes);
+    }
+
+    /**
+     * Budget of half the maximum heap, leaving the rest for encoders, the UI and the
+     * rest of the application
+     */
+    public static MemoryBudget forHeap() {
+        return new MemoryBudget(Runtime.getRuntime().maxMemory() / 2);
+    }
+
+    /**
+     * Waits until the bytes fit in the budget and reserves them
+     * @return the number of bytes reserved, to be passed to {@link #release}
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public synchronized long reserve(long bytes) throws InterruptedException {
+        while (usedBytes > 0 && usedBytes + bytes > budgetBytes) {
+            wait();
+        }
+        usedBytes += bytes;
+        peakBytes = Math.max(peakBytes, usedBytes);
+        return bytes;
+    }
+
+    public synchronized void release(long bytes) {
+        usedBytes -= bytes;
+        notifyAll();
+    }
+
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    /**
+     * Bytes currently reserved
+     */
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * Largest number of bytes reserved at the same time since this budget was created
+     */
+    public synchronized long getPeakBytes() {
+        return peakBytes;
+    }
+
+    /**
+     * Peak and budget, for display
+     */
+    public String getSummary() {
+        return String.format("peak %s of %s", FileTransfer.formatBytes(getPeakBytes()),
+                FileTransfer.formatBytes(budgetBytes));
+    }
+}
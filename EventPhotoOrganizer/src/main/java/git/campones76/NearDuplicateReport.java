@@ -0,0 +1,142 @@
+package git.campones76;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Groups the exported photos into clusters of near-duplicates, such as the frames of
+ * a burst, by the Hamming distance between their perceptual hashes, and writes them
+ * to near-duplicates.txt in the event folder so they can be weeded out of the gallery
+ */
+public class NearDuplicateReport {
+    public static final String FILE_NAME = "near-duplicates.txt";
+
+    private final List<String> photoFilenames;
+    private final List<Long> hashes;
+    private final int maxDistance;
+    private final List<List<Integer>> clusters;
+
+    private NearDuplicateReport(List<String> photoFilenames, List<Long> hashes, int maxDistance,
+                                List<List<Integer>> clusters) {
+        this.photoFilenames = photoFilenames;
+        this.hashes = hashes;
+        this.maxDistance = maxDistance;
+        this.clusters = clusters;
+    }
+
+    /**
+     * Clusters photos whose hashes are at most maxDistance bits apart, directly or
+     * through other photos of the cluster
+     * @param hashes perceptual hash of each photo, null where unknown
+     */
+    public static NearDuplicateReport find(List<String> photoFilenames, List<Long> hashes, int maxDistance) {
+        HammingIndex<Integer> index = new HammingIndex<>(maxDistance);
+        for (int i = 0; i < hashes.size(); i++) {
+            if (hashes.get(i) != null) {
+                index.add(hashes.get(i), i);
+            }
+        }
+
+        // Union-find over every pair the index reports as close
+        int[] parent = new int[hashes.size()];
+        for (int i = 0; i < parent.length; i++) {
+            parent[i] = i;
+        }
+        for (int i = 0; i < hashes.size(); i++) {
+            if (hashes.get(i) == null) {
+                continue;
+            }
+            for (int match : index.search(hashes.get(i))) {
+                int a = root(parent, i);
+                int b = root(parent, match);
+                if (a != b) {
+                    parent[Math.max(a, b)] = Math.min(a, b);
+                }
+            }
+        }
+
+        Map<Integer, List<Integer>> byRoot = new LinkedHashMap<>();
+        for (int i = 0; i < parent.length; i++) {
+            byRoot.computeIfAbsent(root(parent, i), k -> new ArrayList<>()).add(i);
+        }
+        List<List<Integer>> clusters = new ArrayList<>();
+        for (List<Integer> members : byRoot.values()) {
+            if (members.size() > 1) {
+                clusters.add(members);
+            }
+        }
+        return new NearDuplicateReport(photoFilenames, hashes, maxDistance, clusters);
+    }
+
+    private static int root(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    /**
+     * Clusters of output filenames, in gallery order
+     */
+    public List<List<String>> getClusters() {
+        List<List<String>> named = new ArrayList<>(clusters.size());
+        for (List<Integer> members : clusters) {
+            List<String> names = new ArrayList<>(members.size());
+            for (int index : members) {
+                names.add(photoFilenames.get(index));
+            }
+            named.add(Collections.unmodifiableList(names));
+        }
+        return named;
+    }
+
+    public int getClusterCount() {
+        return clusters.size();
+    }
+
+    /**
+     * Number of photos that belong to a cluster
+     */
+    public int getPhotoCount() {
+        int count = 0;
+        for (List<Integer> members : clusters) {
+            count += members.size();
+        }
+        return count;
+    }
+
+    /**
+     * Writes the report into the event folder, or removes an old one if there are no clusters
+     * @param sources original of each photo, listed next to its output name
+     */
+    public void write(File destDir, List<File> sources) throws IOException {
+        File reportFile = new File(destDir, FILE_NAME);
+        if (clusters.isEmpty()) {
+            Files.deleteIfExists(reportFile.toPath());
+            return;
+        }
+        try (PrintWriter w = new PrintWriter(Files.newBufferedWriter(reportFile.toPath(), StandardCharsets.UTF_8))) {
+            w.println("Near-duplicate photos (perceptual hash distance of at most " + maxDistance + " bits)");
+            w.println(getClusterCount() + " cluster(s), " + getPhotoCount() + " photo(s)");
+            for (int c = 0; c < clusters.size(); c++) {
+                List<Integer> members = clusters.get(c);
+                long first = hashes.get(members.get(0));
+                w.println();
+                w.println("Cluster " + (c + 1) + " (" + members.size() + " photos):");
+                for (int index : members) {
+                    w.printf("  %s  [distance %d]  %s%n", photoFilenames.get(index),
+                            PerceptualHash.distance(first, hashes.get(index)), sources.get(index).getPath());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package git.campones76;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * 64-bit difference hash (dHash) of an image: the image is shrunk to 9x8 grey pixels
+ * and each bit records whether a pixel is brighter than its right-hand neighbour.
+ * Near-identical frames, such as those of a burst, differ in only a few bits.
+ */
+public final class PerceptualHash {
+
+    private PerceptualHash() {
+    }
+
+    /**
+     * Hashes an already scaled image; the smaller it is, the cheaper the final shrink
+     */
+    public static long dHash(BufferedImage image) {
+        BufferedImage tiny = ThumbnailGenerator.resize(image, 9, 8);
+        int[] pixels = tiny.getRGB(0, 0, 9, 8, null, 0, 9);
+        long hash = 0;
+        for (int y = 0; y < 8; y++) {
+            for (int x = 0; x < 8; x++) {
+                hash = hash << 1 | (luminance(pixels[y * 9 + x]) > luminance(pixels[y * 9 + x + 1]) ? 1 : 0);
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Number of differing bits between two hashes
+     */
+    public static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+
+    private static int luminance(int rgb) {
+        // ITU-R BT.601 weights, scaled by 1000
+        return ((rgb >> 16) & 0xFF) * 299 + ((rgb >> 8) & 0xFF) * 587 + (rgb & 0xFF) * 114;
+    }
+}
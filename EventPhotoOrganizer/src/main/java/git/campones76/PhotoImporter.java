@@ -0,0 +1,220 @@
+package git.campones76;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the photo selection free of duplicates and imports whole folder trees.
+ * A photo is a duplicate when a selected photo has the same size and the same
+ * content hash; files are only hashed when their size matches another photo, so
+ * most photos are accepted without being read.
+ * <p>
+ * Folders are walked in parallel on a fork/join pool, one task per directory, and
+ * every new photo is reported as soon as it is found. Safe to use from several
+ * threads at once.
+ */
+public class PhotoImporter {
+    private final Map<Long, SizeGroup> bySize = new ConcurrentHashMap<>();
+    private final AtomicInteger duplicateCount = new AtomicInteger();
+    private final AtomicInteger scannedCount = new AtomicInteger();
+    // Incremented by cancel() and clear(); a walk stops once the generation it started with is stale
+    private final AtomicInteger generation = new AtomicInteger();
+    // Offers share the read lock; clear() takes the write lock, so no offer is halfway through it
+    private final ReadWriteLock clearLock = new ReentrantReadWriteLock();
+
+    /**
+     * Adds a photo to the selection unless it duplicates one already there
+     * @return true if the photo was added
+     */
+    public boolean offer(File photo) {
+        return offer(photo, generation.get(), false);
+    }
+
+    /**
+     * @param startGeneration generation the caller started with; the photo is dropped
+     *                        if the import was cancelled or cleared since
+     * @param scanned whether the photo was found by a folder import
+     */
+    private boolean offer(File photo, int startGeneration, boolean scanned) {
+        long size;
+        try {
+            size = Files.size(photo.toPath());
+        } catch (IOException e) {
+            System.err.println("Skipping unreadable photo: " + photo.getPath());
+            return false;
+        }
+        clearLock.readLock().lock();
+        try {
+            if (generation.get() != startGeneration) {
+                return false;
+            }
+            if (scanned) {
+                scannedCount.incrementAndGet();
+            }
+            SizeGroup group = bySize.computeIfAbsent(size, k -> new SizeGroup());
+            if (group.add(photo)) {
+                return true;
+            }
+            duplicateCount.incrementAndGet();
+            return false;
+        } finally {
+            clearLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Walks a folder and its subfolders in parallel and offers every supported image.
+     * Hidden files and folders (including macOS "._" resource files) are skipped, and
+     * symbolic links to folders are not followed.
+     * @param onAdded receives each photo that was added; called from worker threads
+     */
+    public void importFolder(File folder, Consumer<File> onAdded) {
+        ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        try {
+            pool.invoke(new FolderTask(folder, onAdded, generation.get()));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Stops a running folder import; photos already reported stay selected
+     */
+    public void cancel() {
+        generation.incrementAndGet();
+    }
+
+    /**
+     * Forgets every photo, for when the selection is cleared. A folder import still
+     * running is stopped, and photos it finds afterwards are not added.
+     */
+    public void clear() {
+        clearLock.writeLock().lock();
+        try {
+            generation.incrementAndGet();
+            bySize.clear();
+            duplicateCount.set(0);
+            scannedCount.set(0);
+        } finally {
+            clearLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Number of photos rejected as duplicates
+     */
+    public int getDuplicateCount() {
+        return duplicateCount.get();
+    }
+
+    /**
+     * Number of supported images looked at by folder imports
+     */
+    public int getScannedCount() {
+        return scannedCount.get();
+    }
+
+    /**
+     * Photos of one file size; their hashes are computed the first time another
+     * photo of the same size arrives
+     */
+    private static final class SizeGroup {
+        private final List<File> photos = new ArrayList<>(1);
+        private final List<String> hashes = new ArrayList<>(1);
+
+        synchronized boolean add(File photo) {
+            String absolutePath = photo.getAbsolutePath();
+            for (File existing : photos) {
+                if (existing.getAbsolutePath().equals(absolutePath)) {
+                    return false;
+                }
+            }
+            if (!photos.isEmpty()) {
+                String hash = hash(photo);
+                for (int i = 0; i < photos.size(); i++) {
+                    if (hashes.get(i) == null) {
+                        hashes.set(i, hash(photos.get(i)));
+                    }
+                    if (hash != null && hash.equals(hashes.get(i))) {
+                        return false;
+                    }
+                }
+                photos.add(photo);
+                hashes.add(hash);
+                return true;
+            }
+            photos.add(photo);
+            hashes.add(null);
+            return true;
+        }
+
+        private static String hash(File photo) {
+            try {
+                return FileUtils.sha256(photo);
+            } catch (IOException e) {
+                // Cannot compare; keep the photo rather than risk dropping a distinct one
+                System.err.println("Could not read photo for duplicate check: " + photo.getPath());
+                return null;
+            }
+        }
+    }
+
+    private final class FolderTask extends RecursiveAction {
+        private final File folder;
+        private final Consumer<File> onAdded;
+        private final int startGeneration;
+
+        FolderTask(File folder, Consumer<File> onAdded, int startGeneration) {
+            this.folder = folder;
+            this.onAdded = onAdded;
+            this.startGeneration = startGeneration;
+        }
+
+        private boolean isStale() {
+            return generation.get() != startGeneration;
+        }
+
+        @Override
+        protected void compute() {
+            File[] entries = folder.listFiles();
+            if (entries == null || isStale()) {
+                return;
+            }
+            List<FolderTask> subfolders = new ArrayList<>();
+            for (File entry : entries) {
+                if (isStale()) {
+                    break;
+                }
+                String name = entry.getName();
+                if (name.startsWith(".")) {
+                    continue;
+                }
+                if (entry.isDirectory()) {
+                    if (!Files.isSymbolicLink(entry.toPath())) {
+                        FolderTask task = new FolderTask(entry, onAdded, startGeneration);
+                        task.fork();
+                        subfolders.add(task);
+                    }
+                } else if (FileUtils.isSupportedImage(name)) {
+                    if (offer(entry, startGeneration, true)) {
+                        onAdded.accept(entry);
+                    }
+                }
+            }
+            for (FolderTask task : subfolders) {
+                task.join();
+            }
+        }
+    }
+}
@@ -2,11 +2,13 @@ package git.campones76;
 
 import javax.swing.*;
 import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.io.File;
-import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 import java.util.function.BiConsumer;
 
 /**
@@ -15,86 +17,58 @@ import java.util.function.BiConsumer;
 public class PhotoOrganizer {
     private final List<File> photos;
     private final EventMetadata metadata;
-    private final int quality;
+    private final ExportOptions options;
 
     public PhotoOrganizer(List<File> photos, EventMetadata metadata, int quality) {
+        this(photos, metadata, new ExportOptions(quality, ThumbnailSize.forGalleryMosaic()));
+    }
+
+    public PhotoOrganizer(List<File> photos, EventMetadata metadata, ExportOptions options) {
         this.photos = photos;
         this.metadata = metadata;
-        this.quality = quality;
+        this.options = options;
     }
 
     public void organize(Component parent, File baseDir, BiConsumer<Boolean, String> callback) {
-        String folderName = metadata.getFolderName();
-        File destDir = new File(baseDir, folderName);
-        File picturesDir = new File(destDir, "pictures");
-        File thumbnailsDir = new File(destDir, "thumbnails");
-        File assetsDir = new File(destDir, "assets");
-        File cssDir = new File(assetsDir, "css");
-        File imgDir = new File(assetsDir, "img");
-        File icoDir = new File(assetsDir, "ico");
-
-        // Create directories
-        picturesDir.mkdirs();
-        thumbnailsDir.mkdirs();
-        cssDir.mkdirs();
-        imgDir.mkdirs();
-        icoDir.mkdirs();
+        ExportJob job = new ExportJob(photos, metadata, options);
+        File destDir = job.getDestDir(baseDir);
 
         // Show progress dialog
-        JProgressBar progressBar = new JProgressBar(0, photos.size() * 2);
+        JProgressBar progressBar = new JProgressBar(0, job.getTotalSteps());
         progressBar.setStringPainted(true);
         JDialog progressDialog = new JDialog((Frame) SwingUtilities.getWindowAncestor(parent),
                 "Processing Photos", true);
         progressDialog.setLayout(new BorderLayout(10, 10));
-        JLabel progressLabel = new JLabel("Copying and creating thumbnails...");
+        int resumable = job.getResumableCount(baseDir);
+        JLabel progressLabel = new JLabel(resumable > 0
+                ? "Resuming interrupted export (" + resumable + " photos already done)..."
+                : "Copying and creating thumbnails...");
+        JButton cancelButton = new JButton("Cancel");
+        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        buttonPanel.add(cancelButton);
         progressDialog.add(progressLabel, BorderLayout.NORTH);
         progressDialog.add(progressBar, BorderLayout.CENTER);
-        progressDialog.setSize(400, 100);
+        progressDialog.add(buttonPanel, BorderLayout.SOUTH);
+        progressDialog.setSize(400, 140);
         progressDialog.setLocationRelativeTo(parent);
 
         SwingWorker<Void, Integer> worker = new SwingWorker<Void, Integer>() {
-            List<String> photoFilenames = new ArrayList<>();
-
             @Override
             protected Void doInBackground() throws Exception {
-                int progress = 0;
-                int count = 1;
-                ThumbnailGenerator thumbnailGen = new ThumbnailGenerator(quality);
-
-                for (File photo : photos) {
-                    String extension = FileUtils.getFileExtension(photo.getName());
-                    String newFileName = String.format("Credit %s - %d.%s",
-                            metadata.getPhotographer(), count, extension);
-                    File destFile = new File(picturesDir, newFileName);
-                    Files.copy(photo.toPath(), destFile.toPath(),
-                            StandardCopyOption.REPLACE_EXISTING);
-                    publish(++progress);
-
-                    String thumbnailName = newFileName.substring(0,
-                            newFileName.lastIndexOf('.')) + ".webp";
-                    File thumbnailFile = new File(thumbnailsDir, thumbnailName);
-                    thumbnailGen.createThumbnail(photo, thumbnailFile);
-                    photoFilenames.add(newFileName);
-                    publish(++progress);
-                    count++;
-                }
-
-                AssetGenerator assetGen = new AssetGenerator();
-                assetGen.copyAssets(cssDir, imgDir, icoDir);
-                assetGen.createMetadataFile(destDir, metadata, photos.size());
-
-                HTMLGenerator htmlGen = new HTMLGenerator();
-                htmlGen.generateGallery(destDir, metadata, photoFilenames);
-
+                job.run(baseDir, completedSteps -> publish(completedSteps));
                 return null;
             }
 
             @Override
             protected void process(List<Integer> chunks) {
-                int latest = chunks.get(chunks.size() - 1);
+                if (job.isCancelled()) {
+                    return;
+                }
+                // Workers publish concurrently, so chunks may arrive slightly out of order
+                int latest = Collections.max(chunks);
                 progressBar.setValue(latest);
-                progressLabel.setText(String.format("Processing photo %d of %d (Quality: %d%%)...",
-                        (latest + 1) / 2, photos.size(), quality));
+                progressLabel.setText(String.format("Processing photo %d of %d (Quality: %s)...",
+                        (latest + 1) / 2, photos.size(), ExportJob.describeQuality(options)));
             }
 
             @Override
@@ -105,13 +79,49 @@ public class PhotoOrganizer {
                     callback.accept(true,
                             "Photos organized, thumbnails created, and HTML generated successfully!\n\n" +
                                     "Location: " + destDir.getAbsolutePath() + "\nHTML file: index.html\n" +
-                                    "Thumbnail quality: " + quality + "%");
+                                    "Thumbnail quality: " + ExportJob.describeQuality(options) + "\n" +
+                                    "Thumbnail size: " + options.getThumbnailSize() + "\n" +
+                                    "Originals: " + job.getTransferSummary() + "\n" +
+                                    "Decode memory: " + job.getMemoryBudget().getSummary() + "\n" +
+                                    "Stage timings: " + StageStats.REPORT_FILE_NAME +
+                                    (job.getThumbnailBudgetSummary() != null
+                                            ? "\nThumbnail budget: " + job.getThumbnailBudgetSummary() : "") +
+                                    (job.getThumbnailCache() != null
+                                            ? "\nThumbnail cache: " + job.getThumbnailCache().getSummary() : "") +
+                                    (job.getReusedCount() > 0
+                                            ? "\nUnchanged photos reused: " + job.getReusedCount() : "") +
+                                    (job.getNearDuplicates() != null && job.getNearDuplicates().getClusterCount() > 0
+                                            ? "\nNear-duplicates: " + job.getNearDuplicates().getPhotoCount()
+                                            + " photos in " + job.getNearDuplicates().getClusterCount()
+                                            + " clusters (see " + NearDuplicateReport.FILE_NAME + ")" : ""));
+                } catch (ExecutionException ex) {
+                    if (ex.getCause() instanceof CancellationException) {
+                        callback.accept(false, "Export cancelled. Organize into the same folder again " +
+                                "to resume where it stopped.");
+                    } else {
+                        callback.accept(false, "Error processing photos: " + ex.getCause().getMessage());
+                    }
                 } catch (Exception ex) {
                     callback.accept(false, "Error processing photos: " + ex.getMessage());
                 }
             }
         };
 
+        // Cooperative: photos in progress finish so their outputs are complete
+        Runnable cancel = () -> {
+            job.cancel();
+            cancelButton.setEnabled(false);
+            progressLabel.setText("Cancelling after the photos in progress...");
+        };
+        cancelButton.addActionListener(e -> cancel.run());
+        progressDialog.setDefaultCloseOperation(WindowConstants.DO_NOTHING_ON_CLOSE);
+        progressDialog.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                cancel.run();
+            }
+        });
+
         worker.execute();
         progressDialog.setVisible(true);
     }
@@ -0,0 +1,618 @@
+package git.campones76;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+/**
+ * Copies photos and creates their thumbnails on a bounded pool of worker threads.
+ * Output names are assigned up front from the selection order, so the numbering
+ * and the returned filename list do not depend on which worker finishes first.
+ * <p>
+ * Exports are incremental: the {@link ExportManifest} of the previous export into the
+ * same folder is used to skip photos whose source and settings are unchanged, to move
+ * outputs of photos that only changed position, and to remove outputs of photos that
+ * are no longer selected.
+ */
+public class PhotoProcessor {
+    public static final String PICTURES_DIR = "pictures";
+    public static final String THUMBNAILS_DIR = "thumbnails";
+    private static final String STAGING_DIR = ".reuse";
+
+    private final List<File> photos;
+    private final EventMetadata metadata;
+    private final ExportOptions options;
+    private final AtomicInteger reusedCount = new AtomicInteger();
+    private FileTransfer fileTransfer;
+    // Buffers for reading each source once; dropped when a run ends
+    private final SourceBuffer sourceBuffer = new SourceBuffer();
+    private MemoryBudget memoryBudget;
+    private MemoryBudget sharedMemoryBudget;
+    private ExecutorService sharedExecutor;
+    private StageStats stageStats = new StageStats();
+    private volatile boolean cancelled;
+    private ThumbnailCache thumbnailCache;
+    private ThumbnailGenerator thumbnailGenerator;
+    private List<ThumbnailPreview> previews = new ArrayList<>();
+    private List<Long> perceptualHashes = new ArrayList<>();
+
+    public PhotoProcessor(List<File> photos, EventMetadata metadata, ExportOptions options) {
+        this.photos = photos;
+        this.metadata = metadata;
+        this.options = options;
+        this.fileTransfer = new FileTransfer(options.getTransferMode());
+        this.memoryBudget = options.createMemoryBudget();
+    }
+
+    /**
+     * Number of progress steps reported by {@link #process}: one for the copy and one
+     * for the thumbnail of every photo
+     */
+    public int getTotalSteps() {
+        return photos.size() * 2;
+    }
+
+    /**
+     * Number of photos in the last run whose outputs were reused from the previous export
+     */
+    public int getReusedCount() {
+        return reusedCount.get();
+    }
+
+    /**
+     * Summary of how the originals of the last run were placed in the pictures folder
+     */
+    public String getTransferSummary() {
+        return fileTransfer.getSummary();
+    }
+
+    /**
+     * How the main thumbnails of the last run were fitted to the byte budget, or null if
+     * they used the fixed quality
+     */
+    public String getThumbnailBudgetSummary() {
+        return thumbnailGenerator != null ? thumbnailGenerator.getBudgetSummary() : null;
+    }
+
+    /**
+     * Thumbnail dimensions and placeholders of the last run, in the same order as the
+     * returned filenames
+     */
+    public List<ThumbnailPreview> getPreviews() {
+        return previews;
+    }
+
+    /**
+     * Perceptual hashes of the last run, in the same order as the returned filenames;
+     * null where a photo could not be hashed
+     */
+    public List<Long> getPerceptualHashes() {
+        return perceptualHashes;
+    }
+
+    /**
+     * Asks a running {@link #process} to stop. Photos already started are finished, the
+     * rest are skipped, and process throws a CancellationException; the journal keeps
+     * what was done, so the next export into the same folder resumes from there.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    private void checkCancelled() {
+        if (cancelled) {
+            throw new CancellationException("Export cancelled");
+        }
+    }
+
+    /**
+     * Receives the timings of every per-photo stage of the following runs
+     */
+    public void setStageStats(StageStats stageStats) {
+        this.stageStats = stageStats;
+    }
+
+    /**
+     * Runs the per-photo tasks of the next run on executor instead of a pool of its own.
+     * The run shuts executor down when it ends, so it serves one run only.
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.sharedExecutor = executor;
+    }
+
+    /**
+     * Decodes of the following runs reserve memory from budget instead of a budget of
+     * their own, so exports running at the same time share one limit
+     */
+    public void setMemoryBudget(MemoryBudget budget) {
+        this.sharedMemoryBudget = budget;
+        if (budget != null) {
+            this.memoryBudget = budget;
+        }
+    }
+
+    /**
+     * Cross-export thumbnail cache of the last run, or null if it was disabled
+     */
+    public ThumbnailCache getThumbnailCache() {
+        return thumbnailCache;
+    }
+
+    /**
+     * Decode memory budget of the last run; its current and peak use can be read while
+     * the run is in progress
+     */
+    public MemoryBudget getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Copies every photo into the pictures folder of destDir and writes its thumbnail
+     * into the thumbnails folder, then updates the export manifest
+     * @param progress receives the number of completed steps; called from worker threads
+     * @return the new photo filenames, in the same order as the selected photos
+     * @throws IOException if any photo fails; the remaining work is cancelled
+     */
+    public List<String> process(File destDir, IntConsumer progress)
+            throws IOException, InterruptedException {
+        File picturesDir = new File(destDir, PICTURES_DIR);
+        File thumbnailsDir = new File(destDir, THUMBNAILS_DIR);
+        File stagingDir = new File(destDir, STAGING_DIR);
+        picturesDir.mkdirs();
+        thumbnailsDir.mkdirs();
+
+        ThumbnailGenerator thumbnailGen = new ThumbnailGenerator(options.getQuality(),
+                options.getThumbnailSize(), options.getThumbnailLadder());
+        memoryBudget = sharedMemoryBudget != null ? sharedMemoryBudget : options.createMemoryBudget();
+        thumbnailGen.setTargetBytes(options.getThumbnailTargetBytes());
+        thumbnailGen.setMemoryBudget(memoryBudget);
+        thumbnailGenerator = thumbnailGen;
+        thumbnailGen.setStageStats(stageStats);
+        thumbnailCache = options.openThumbnailCache();
+        if (thumbnailCache != null) {
+            thumbnailCache.resetStatistics();
+            thumbnailCache.trimToCapacity();
+        }
+        thumbnailGen.setCache(thumbnailCache);
+        ExportManifest previous = ExportManifest.load(destDir);
+        if (ExportJournal.exists(destDir)) {
+            // An earlier run was interrupted: keep what it finished. Outputs it had
+            // staged for moving are lost with the staging folder and are made again.
+            deleteRecursively(stagingDir);
+            previous = ExportJournal.recover(destDir, previous, picturesDir, thumbnailsDir);
+        }
+        reusedCount.set(0);
+        fileTransfer = new FileTransfer(options.getTransferMode());
+
+        List<String> photoFilenames = new ArrayList<>(photos.size());
+        List<PhotoTask> tasks = new ArrayList<>(photos.size());
+        for (int i = 0; i < photos.size(); i++) {
+            String newFileName = getOutputName(photos.get(i), i + 1);
+            photoFilenames.add(newFileName);
+            tasks.add(new PhotoTask(photos.get(i), newFileName));
+        }
+
+        String settings = thumbnailGen.getSettings();
+        ExportJournal journal = ExportJournal.start(destDir);
+        ExecutorService executor = sharedExecutor != null ? sharedExecutor : Executors.newFixedThreadPool(
+                Math.min(options.getWorkerCount(), Math.max(1, photos.size())), createThreadFactory());
+        try {
+            // Fingerprint sources in parallel; only hashes files that could match old output
+            Map<String, ExportManifest.Entry> previousBySource = new HashMap<>();
+            Set<Long> previousSizes = new HashSet<>();
+            for (ExportManifest.Entry entry : previous.getEntries()) {
+                previousBySource.put(entry.getSourcePath(), entry);
+                previousSizes.add(entry.getSize());
+            }
+            List<Callable<Void>> fingerprints = new ArrayList<>();
+            for (PhotoTask task : tasks) {
+                fingerprints.add(() -> {
+                    checkCancelled();
+                    task.fingerprint(previousBySource.get(task.sourcePath()), previousSizes);
+                    return null;
+                });
+            }
+            runAll(executor, fingerprints);
+
+            // Decide which old outputs can be kept as they are or moved to a new name
+            checkCancelled();
+            planReuse(tasks, previous, settings, destDir, stagingDir);
+
+            AtomicInteger completedSteps = new AtomicInteger();
+            List<Callable<Void>> work = new ArrayList<>();
+            for (PhotoTask task : tasks) {
+                work.add(() -> {
+                    checkCancelled();
+                    task.run(destDir, thumbnailGen, journal, progress, completedSteps);
+                    return null;
+                });
+            }
+            runAll(executor, work);
+        } finally {
+            try {
+                // Not shutdownNow: interrupting a worker mid-photo could leave its outputs half written
+                executor.shutdown();
+                // Workers still finishing a photo must not log to a closed journal
+                awaitTermination(executor);
+            } finally {
+                journal.close();
+                sourceBuffer.clear();
+            }
+        }
+
+        List<ExportManifest.Entry> entries = new ArrayList<>(tasks.size());
+        Set<String> outputs = new HashSet<>();
+        List<ThumbnailPreview> taskPreviews = new ArrayList<>(tasks.size());
+        List<Long> taskHashes = new ArrayList<>(tasks.size());
+        for (PhotoTask task : tasks) {
+            ExportManifest.Entry entry = task.toManifestEntry(settings);
+            entries.add(entry);
+            outputs.addAll(entry.getOutputs());
+            taskPreviews.add(task.preview);
+            taskHashes.add(task.perceptualHash);
+        }
+        previews = taskPreviews;
+        perceptualHashes = taskHashes;
+        removeOrphans(destDir, previous.getAllOutputs(), outputs);
+        deleteRecursively(stagingDir);
+        new ExportManifest(entries).save(destDir);
+        ExportJournal.delete(destDir);
+
+        return photoFilenames;
+    }
+
+    /**
+     * Matches photos against the previous manifest. Exact matches (same content,
+     * settings and output names) are kept in place; content matches under another
+     * name are moved aside to a staging folder so that no task can overwrite them
+     * before they are moved to their new name.
+     */
+    private void planReuse(List<PhotoTask> tasks, ExportManifest previous, String settings,
+                           File destDir, File stagingDir) throws IOException {
+        Map<String, List<ExportManifest.Entry>> unclaimed = new LinkedHashMap<>();
+        for (ExportManifest.Entry entry : previous.getEntries()) {
+            if (entry.getOutputs().size() >= 2 && allExist(destDir, entry.getOutputs())) {
+                unclaimed.computeIfAbsent(entry.getContentHash(), k -> new ArrayList<>()).add(entry);
+            }
+        }
+
+        for (PhotoTask task : tasks) {
+            List<ExportManifest.Entry> candidates = unclaimed.get(task.contentHash);
+            if (candidates == null) {
+                continue;
+            }
+            for (ExportManifest.Entry candidate : candidates) {
+                if (candidate.getOutputs().get(0).equals(task.pictureOutput())) {
+                    candidates.remove(candidate);
+                    task.reusePicture = true;
+                    if (canReuseThumbnails(candidate, settings)) {
+                        task.reusedThumbnails = getThumbnailOutputs(candidate);
+                        task.preview = candidate.getPreview();
+                        task.perceptualHash = candidate.getPerceptualHash();
+                    }
+                    break;
+                }
+            }
+        }
+
+        int staged = 0;
+        for (PhotoTask task : tasks) {
+            List<ExportManifest.Entry> candidates = unclaimed.get(task.contentHash);
+            if (task.reusePicture || candidates == null || candidates.isEmpty()) {
+                continue;
+            }
+            ExportManifest.Entry candidate = candidates.remove(0);
+            stagingDir.mkdirs();
+            task.stagedPicture = stage(destDir, candidate.getOutputs().get(0), stagingDir, staged++);
+            if (canReuseThumbnails(candidate, settings)) {
+                task.preview = candidate.getPreview();
+                task.perceptualHash = candidate.getPerceptualHash();
+                task.stagedThumbnails = new LinkedHashMap<>();
+                for (String output : getThumbnailOutputs(candidate)) {
+                    task.stagedThumbnails.put(stage(destDir, output, stagingDir, staged++), output);
+                }
+            }
+        }
+    }
+
+    /**
+     * Whether the thumbnails of an entry were made with the same settings and have a
+     * recorded preview (entries from before previews existed do not)
+     */
+    private static boolean canReuseThumbnails(ExportManifest.Entry entry, String settings) {
+        return entry.getSettings().equals(settings) && entry.getPreview() != null;
+    }
+
+    /**
+     * Thumbnail outputs of an entry: the main thumbnail, or one per ladder size
+     */
+    private static List<String> getThumbnailOutputs(ExportManifest.Entry entry) {
+        return entry.getOutputs().subList(1, entry.getOutputs().size());
+    }
+
+    private static File stage(File destDir, String output, File stagingDir, int index) throws IOException {
+        File staged = new File(stagingDir, index + "-" + new File(output).getName());
+        Files.move(new File(destDir, output).toPath(), staged.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return staged;
+    }
+
+    private static boolean allExist(File destDir, List<String> outputs) {
+        for (String output : outputs) {
+            if (!new File(destDir, output).isFile()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void removeOrphans(File destDir, Set<String> previousOutputs, Set<String> currentOutputs) {
+        for (String output : previousOutputs) {
+            if (!currentOutputs.contains(output)) {
+                File orphan = new File(destDir, output);
+                if (orphan.isFile() && !orphan.delete()) {
+                    System.err.println("Could not remove old output: " + orphan.getPath());
+                }
+            }
+        }
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Waits for the photos still running on a shut down executor, however long they take
+     * @throws InterruptedException if interrupted; the photos then still finish, but
+     *         their journal entries may be lost and they are redone by the next export
+     */
+    private static void awaitTermination(ExecutorService executor) throws InterruptedException {
+        while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+            System.err.println("Still waiting for the photos in progress to finish...");
+        }
+    }
+
+    /**
+     * Runs tasks on the executor and waits for all of them. If one fails, the export is
+     * cancelled or the wait is interrupted, the tasks not yet started are cancelled;
+     * tasks already running are left to finish rather than interrupted, so no photo is
+     * left half written.
+     * @throws IOException with the first failure
+     */
+    private static void runAll(ExecutorService executor, List<Callable<Void>> tasks)
+            throws IOException, InterruptedException {
+        List<Future<Void>> futures = new ArrayList<>(tasks.size());
+        for (Callable<Void> task : tasks) {
+            futures.add(executor.submit(task));
+        }
+        boolean completed = false;
+        try {
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    }
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    throw new IOException(cause.getMessage(), cause);
+                }
+            }
+            completed = true;
+        } finally {
+            if (!completed) {
+                for (Future<Void> future : futures) {
+                    future.cancel(false);
+                }
+            }
+        }
+    }
+
+    private String getOutputName(File photo, int number) {
+        String extension = FileUtils.getFileExtension(photo.getName());
+        return String.format("Credit %s - %d.%s", metadata.getPhotographer(), number, extension);
+    }
+
+    static String getThumbnailName(String photoFilename) {
+        return photoFilename.substring(0, photoFilename.lastIndexOf('.')) + ".webp";
+    }
+
+    private static ThreadFactory createThreadFactory() {
+        AtomicInteger threadNumber = new AtomicInteger(1);
+        return runnable -> {
+            Thread thread = new Thread(runnable, "photo-worker-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * State of one photo through the fingerprint, planning and processing phases
+     */
+    private class PhotoTask {
+        private final File photo;
+        private final String newFileName;
+        private long size;
+        private long lastModified;
+        private String contentHash;
+        private boolean reusePicture;
+        private List<String> reusedThumbnails;
+        private File stagedPicture;
+        // Staged file -> output path it had in the previous export
+        private Map<File, String> stagedThumbnails;
+        private final List<String> thumbnailOutputs = new ArrayList<>();
+        private ThumbnailPreview preview;
+        private Long perceptualHash;
+
+        PhotoTask(File photo, String newFileName) {
+            this.photo = photo;
+            this.newFileName = newFileName;
+        }
+
+        String sourcePath() {
+            return photo.getAbsolutePath();
+        }
+
+        String pictureOutput() {
+            return PICTURES_DIR + "/" + newFileName;
+        }
+
+        /**
+         * Reads size and modification time; the content hash is taken from the previous
+         * manifest if those are unchanged, computed now if the file might match an old
+         * output by content, and otherwise computed from the bytes read for the transfer
+         */
+        void fingerprint(ExportManifest.Entry previousEntry, Set<Long> previousSizes) throws IOException {
+            try (StageStats.Timing timing = stageStats.start(StageStats.Stage.FINGERPRINT, photo.getName())) {
+                size = Files.size(photo.toPath());
+                lastModified = Files.getLastModifiedTime(photo.toPath()).toMillis();
+                if (previousEntry != null && previousEntry.getSize() == size
+                        && previousEntry.getLastModified() == lastModified) {
+                    contentHash = previousEntry.getContentHash();
+                } else if (previousSizes.contains(size)) {
+                    contentHash = FileUtils.sha256(photo);
+                    timing.setBytes(size);
+                }
+            }
+        }
+
+        void run(File destDir, ThumbnailGenerator thumbnailGen, ExportJournal journal, IntConsumer progress,
+                 AtomicInteger completedSteps) throws IOException {
+            String baseName = newFileName.substring(0, newFileName.lastIndexOf('.'));
+            if (!reusePicture || reusedThumbnails == null) {
+                // Outputs under this name are about to be replaced
+                journal.pending(baseName);
+            }
+            // Read once for the copy, the checksum and the decode; links and a known hash need no read
+            ByteBuffer content = null;
+            if (stagedPicture == null && !reusePicture
+                    && (fileTransfer.getMode() == FileTransfer.Mode.COPY || contentHash == null)) {
+                try (StageStats.Timing timing = stageStats.start(StageStats.Stage.INGEST, photo.getName())) {
+                    content = sourceBuffer.read(photo);
+                    timing.setBytes(content != null ? content.limit() : 0);
+                }
+            }
+            try {
+                writeOutputs(destDir, baseName, content, thumbnailGen, progress, completedSteps);
+            } finally {
+                sourceBuffer.release(content);
+            }
+            journal.done(toManifestEntry(thumbnailGen.getSettings()));
+            progress.accept(completedSteps.incrementAndGet());
+        }
+
+        /**
+         * Copies or moves the picture and creates, reuses or moves its thumbnails
+         * @param content the source's bytes, or null to read the file
+         */
+        private void writeOutputs(File destDir, String baseName, ByteBuffer content, ThumbnailGenerator thumbnailGen,
+                                  IntConsumer progress, AtomicInteger completedSteps) throws IOException {
+            File destFile = new File(destDir, pictureOutput());
+            if (stagedPicture != null) {
+                Files.move(stagedPicture.toPath(), destFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } else if (!reusePicture) {
+                // Without the bytes in memory, a copy from disk computes the checksum as it goes
+                MessageDigest digest = contentHash == null && content == null ? FileUtils.newSha256() : null;
+                FileTransfer.Mode used;
+                try (StageStats.Timing timing = stageStats.start(StageStats.Stage.TRANSFER, photo.getName())) {
+                    used = fileTransfer.transfer(photo, content, destFile, digest);
+                    timing.setBytes(size);
+                }
+                if (contentHash == null && digest != null && used == FileTransfer.Mode.COPY) {
+                    contentHash = FileUtils.toHex(digest.digest());
+                } else if (contentHash == null) {
+                    try (StageStats.Timing timing = stageStats.start(StageStats.Stage.CHECKSUM, photo.getName())) {
+                        contentHash = content != null ? FileUtils.sha256(content) : FileUtils.sha256(photo);
+                        timing.setBytes(size);
+                    }
+                }
+            }
+            progress.accept(completedSteps.incrementAndGet());
+
+            if (reusedThumbnails != null) {
+                thumbnailOutputs.addAll(reusedThumbnails);
+            } else if (stagedThumbnails != null) {
+                for (Map.Entry<File, String> staged : stagedThumbnails.entrySet()) {
+                    // Same folder as before (ladder sizes live in thumbnails/<edge>/), new name,
+                    // and the extension the thumbnail was actually written with (.webp or .jpg)
+                    String oldOutput = staged.getValue();
+                    String extension = FileUtils.getFileExtension(staged.getKey().getName());
+                    String output = oldOutput.substring(0, oldOutput.lastIndexOf('/') + 1)
+                            + baseName + "." + extension;
+                    Files.move(staged.getKey().toPath(), new File(destDir, output).toPath(),
+                            StandardCopyOption.REPLACE_EXISTING);
+                    thumbnailOutputs.add(output);
+                }
+            } else {
+                ThumbnailResult result = thumbnailGen.createThumbnails(photo, content, contentHash,
+                        new File(destDir, THUMBNAILS_DIR), baseName);
+                preview = result.getPreview();
+                perceptualHash = result.getPerceptualHash();
+                for (File written : result.getFiles()) {
+                    thumbnailOutputs.add(destDir.toPath().relativize(written.toPath()).toString()
+                            .replace(File.separatorChar, '/'));
+                }
+            }
+            if (perceptualHash == null) {
+                // Reused from an export that predates perceptual hashes: hash its thumbnail
+                perceptualHash = hashThumbnail(new File(destDir, thumbnailOutputs.get(0)));
+            }
+            if ((reusePicture || stagedPicture != null)
+                    && (reusedThumbnails != null || stagedThumbnails != null)) {
+                reusedCount.incrementAndGet();
+            }
+        }
+
+        private Long hashThumbnail(File thumbnail) {
+            try {
+                BufferedImage image = ImageIO.read(thumbnail);
+                return image != null ? PerceptualHash.dHash(image) : null;
+            } catch (IOException e) {
+                System.err.println("Could not hash thumbnail: " + thumbnail.getPath());
+                return null;
+            }
+        }
+
+        ExportManifest.Entry toManifestEntry(String settings) {
+            List<String> outputs = new ArrayList<>(1 + thumbnailOutputs.size());
+            outputs.add(pictureOutput());
+            outputs.addAll(thumbnailOutputs);
+            return new ExportManifest.Entry(sourcePath(), size, lastModified, contentHash, settings,
+                    preview, perceptualHash, outputs);
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package git.campones76;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One set of worker threads shared by several exports. Each export submits its
+ * per-photo tasks to its own {@link Lane}; whenever a worker is free it takes the next
+ * task of the lane with the highest priority, taking turns between lanes of the same
+ * priority. Work therefore flows across event boundaries: while one event writes its
+ * gallery, the workers are already busy with the photos of the next.
+ * <p>
+ * This is one central queue of lanes under a single lock rather than a work-stealing
+ * pool. With stealing, tasks would already sit in per-worker deques when an event is
+ * paused, cancelled or given a higher priority, and every such change would have to
+ * reach into all of them. Workers take each task from the scheduler instead, so those
+ * changes apply to every task not yet started. The lock is held only to pick a task;
+ * a task is a whole photo, tens of milliseconds of decoding and encoding, so workers
+ * seldom wait on it.
+ */
+public class PhotoScheduler {
+    private final List<Lane> lanes = new ArrayList<>();
+    private final List<Thread> workers = new ArrayList<>();
+    private long turns;
+    private boolean shutdown;
+
+    /**
+     * Starts workerCount daemon worker threads
+     */
+    public PhotoScheduler(int workerCount) {
+        for (int i = 1; i <= Math.max(1, workerCount); i++) {
+            Thread worker = new Thread(this::work, "photo-worker-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    public int getWorkerCount() {
+        return workers.size();
+    }
+
+    /**
+     * A new lane for the tasks of one export
+     */
+    public synchronized Lane newLane(int priority) {
+        Lane lane = new Lane(priority);
+        lanes.add(lane);
+        return lane;
+    }
+
+    /**
+     * Stops the workers once their current tasks finish; tasks not yet started are
+     * dropped
+     */
+    public synchronized void shutdown() {
+        shutdown = true;
+        notifyAll();
+    }
+
+    private void work() {
+        while (true) {
+            Lane lane;
+            Runnable task;
+            synchronized (this) {
+                lane = nextLane();
+                while (lane == null && !shutdown) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    lane = nextLane();
+                }
+                if (lane == null) {
+                    return;
+                }
+                task = lane.pending.poll();
+                lane.running++;
+                lane.turn = ++turns;
+            }
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                // Tasks are FutureTasks, which keep their own failures; anything else is a bug.
+                // Reported with its stack trace, and the worker carries on with the other lanes.
+                Thread worker = Thread.currentThread();
+                worker.getUncaughtExceptionHandler().uncaughtException(worker, e);
+            } finally {
+                // A cancelled task's interrupt must not reach the next export's task
+                Thread.interrupted();
+                synchronized (this) {
+                    lane.running--;
+                    if (lane.isTerminated()) {
+                        lanes.remove(lane);
+                    }
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * The lane to serve next: the highest priority first, then the one served longest ago
+     */
+    private Lane nextLane() {
+        Lane next = null;
+        for (Lane lane : lanes) {
+            if (lane.paused || lane.pending.isEmpty()) {
+                continue;
+            }
+            if (next == null || lane.priority > next.priority
+                    || (lane.priority == next.priority && lane.turn < next.turn)) {
+                next = lane;
+            }
+        }
+        return next;
+    }
+
+    /**
+     * The tasks of one export, run by the scheduler's shared workers. Shutting a lane
+     * down only affects its own tasks; the workers keep serving the other lanes.
+     */
+    public class Lane extends AbstractExecutorService {
+        private final ArrayDeque<Runnable> pending = new ArrayDeque<>();
+        private int priority;
+        private boolean paused;
+        private int running;
+        private long turn;
+        private boolean closed;
+        private boolean cancelled;
+
+        private Lane(int priority) {
+            this.priority = priority;
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            synchronized (PhotoScheduler.this) {
+                if (closed || shutdown) {
+                    throw new RejectedExecutionException("Lane is shut down");
+                }
+                if (cancelled) {
+                    if (!cancel(task)) {
+                        throw new RejectedExecutionException("Lane is cancelled");
+                    }
+                    return;
+                }
+                pending.add(task);
+                PhotoScheduler.this.notifyAll();
+            }
+        }
+
+        /**
+         * Higher priorities are served first
+         */
+        public void setPriority(int priority) {
+            synchronized (PhotoScheduler.this) {
+                this.priority = priority;
+            }
+        }
+
+        public int getPriority() {
+            synchronized (PhotoScheduler.this) {
+                return priority;
+            }
+        }
+
+        /**
+         * Holds the tasks not yet started; tasks already running finish
+         */
+        public void setPaused(boolean paused) {
+            synchronized (PhotoScheduler.this) {
+                this.paused = paused;
+                PhotoScheduler.this.notifyAll();
+            }
+        }
+
+        public boolean isPaused() {
+            synchronized (PhotoScheduler.this) {
+                return paused;
+            }
+        }
+
+        /**
+         * Cancels the tasks not yet started and every task submitted from now on, so an
+         * export waiting for them ends without waiting for its turn. Tasks submitted as
+         * futures report a CancellationException; tasks already running finish.
+         */
+        public void cancel() {
+            synchronized (PhotoScheduler.this) {
+                cancelled = true;
+                for (Runnable task : pending) {
+                    cancel(task);
+                }
+                pending.clear();
+                PhotoScheduler.this.notifyAll();
+            }
+        }
+
+        /**
+         * @return false if task is not a future and cannot report its cancellation
+         */
+        private boolean cancel(Runnable task) {
+            if (!(task instanceof Future)) {
+                return false;
+            }
+            ((Future<?>) task).cancel(false);
+            return true;
+        }
+
+        @Override
+        public void shutdown() {
+            synchronized (PhotoScheduler.this) {
+                closed = true;
+                if (isTerminated()) {
+                    lanes.remove(this);
+                }
+                PhotoScheduler.this.notifyAll();
+            }
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            synchronized (PhotoScheduler.this) {
+                List<Runnable> dropped = new ArrayList<>(pending);
+                pending.clear();
+                shutdown();
+                return dropped;
+            }
+        }
+
+        @Override
+        public boolean isShutdown() {
+            synchronized (PhotoScheduler.this) {
+                return closed;
+            }
+        }
+
+        @Override
+        public boolean isTerminated() {
+            synchronized (PhotoScheduler.this) {
+                return closed && pending.isEmpty() && running == 0;
+            }
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            synchronized (PhotoScheduler.this) {
+                while (!isTerminated()) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(PhotoScheduler.this, remaining);
+                }
+                return true;
+            }
+        }
+    }
+}
@@ -2,6 +2,7 @@ package git.campones76;
 
 import javax.swing.*;
 import java.awt.*;
+import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.FilenameFilter;
 import java.util.ArrayList;
@@ -9,18 +10,33 @@ import java.util.Arrays;
 import java.util.List;
 
 /**
- * Panel for selecting and displaying photos
+ * Panel for selecting and displaying photos.
+ * The list only renders the rows in view, and their small previews are decoded on
+ * demand by a {@link PreviewLoader}, so thousands of photos scroll smoothly.
  */
 public class PhotoSelectionPanel extends JPanel {
-    private final JTextArea photoListArea;
+    private static final int PREVIEW_EDGE = 32;
+    private static final int ROW_HEIGHT = PREVIEW_EDGE + 4;
+    private static final int ROW_WIDTH = 560;
+    // About 2,000 previews of 32x24 pixels
+    private static final long PREVIEW_CACHE_BYTES = 6L * 1024 * 1024;
+
+    private final PhotoListModel photoListModel;
+    private final JList<File> photoList;
+    private final PreviewLoader previewLoader;
     private final JButton importButton;
+    private final JButton importFolderButton;
     private final JButton clearButton;
     private Runnable importListener;
+    private Runnable importFolderListener;
     private Runnable clearListener;
 
     public PhotoSelectionPanel() {
-        photoListArea = new JTextArea(8, 50);
+        photoListModel = new PhotoListModel();
+        photoList = new JList<>(photoListModel);
+        previewLoader = new PreviewLoader(PREVIEW_EDGE, PREVIEW_CACHE_BYTES, photo -> photoList.repaint());
         importButton = new JButton("Import Photos");
+        importFolderButton = new JButton("Import Folder");
         clearButton = new JButton("Clear All");
         initializeUI();
     }
@@ -42,6 +58,14 @@ public class PhotoSelectionPanel extends JPanel {
         });
         buttonPanel.add(importButton);
 
+        importFolderButton.setToolTipText("Import every photo in a folder and its subfolders, skipping duplicates");
+        importFolderButton.addActionListener(e -> {
+            if (importFolderListener != null) {
+                importFolderListener.run();
+            }
+        });
+        buttonPanel.add(importFolderButton);
+
         clearButton.addActionListener(e -> {
             if (clearListener != null) {
                 clearListener.run();
@@ -59,8 +83,13 @@ public class PhotoSelectionPanel extends JPanel {
         add(photoListLabel);
         add(Box.createVerticalStrut(5));
 
-        photoListArea.setEditable(false);
-        JScrollPane scrollPane = new JScrollPane(photoListArea);
+        // Fixed row sizes let the list lay out without rendering (and so loading) every row
+        photoList.setFixedCellHeight(ROW_HEIGHT);
+        photoList.setFixedCellWidth(ROW_WIDTH);
+        photoList.setVisibleRowCount(5);
+        photoList.setCellRenderer(new PhotoCellRenderer());
+        JScrollPane scrollPane = new JScrollPane(photoList);
+        scrollPane.getViewport().addChangeListener(e -> cancelHiddenPreviews());
         scrollPane.setMaximumSize(new Dimension(600, 180));
         scrollPane.setAlignmentX(Component.LEFT_ALIGNMENT);
         scrollPane.setOpaque(false);
@@ -72,6 +101,10 @@ public class PhotoSelectionPanel extends JPanel {
         this.importListener = listener;
     }
 
+    public void setImportFolderListener(Runnable listener) {
+        this.importFolderListener = listener;
+    }
+
     public void setClearListener(Runnable listener) {
         this.clearListener = listener;
     }
@@ -88,10 +121,7 @@ public class PhotoSelectionPanel extends JPanel {
         fileDialog.setFilenameFilter(new FilenameFilter() {
             @Override
             public boolean accept(File dir, String name) {
-                String lower = name.toLowerCase();
-                return lower.endsWith(".jpg") || lower.endsWith(".jpeg") ||
-                        lower.endsWith(".png") || lower.endsWith(".gif") ||
-                        lower.endsWith(".bmp") || lower.endsWith(".webp");
+                return FileUtils.isSupportedImage(name);
             }
         });
 
@@ -106,15 +136,148 @@ public class PhotoSelectionPanel extends JPanel {
         return null;
     }
 
-    public void updatePhotoList(List<File> photos) {
-        StringBuilder sb = new StringBuilder();
-        for (File file : photos) {
-            sb.append(file.getName()).append("\n");
+    /**
+     * Lets the user pick a folder to import
+     * @return the folder, or null if the dialog was cancelled
+     */
+    public File selectFolder(Component parent) {
+        // Use native directory picker
+        System.setProperty("apple.awt.fileDialogForDirectories", "true");
+        FileDialog dirDialog = new FileDialog((Frame) SwingUtilities.getWindowAncestor(parent),
+                "Select Folder to Import", FileDialog.LOAD);
+        dirDialog.setVisible(true);
+        System.setProperty("apple.awt.fileDialogForDirectories", "false");
+
+        String directory = dirDialog.getDirectory();
+        String file = dirDialog.getFile();
+        if (directory != null && file != null) {
+            return new File(directory, file);
+        } else if (directory != null) {
+            return new File(directory);
         }
-        photoListArea.setText(sb.toString());
+        return null;
+    }
+
+    /**
+     * Adds photos to the end of the displayed list without rebuilding it
+     */
+    public void appendPhotos(List<File> photos) {
+        photoListModel.append(photos);
+    }
+
+    public void updatePhotoList(List<File> photos) {
+        photoListModel.setAll(photos);
+        // Rows have moved; let the renderer request the new visible rows again
+        cancelHiddenPreviews();
     }
 
     public void clearPhotoList() {
-        photoListArea.setText("");
+        photoListModel.setAll(new ArrayList<>());
+        previewLoader.clear();
+    }
+
+    /**
+     * Preview cache statistics, for display
+     */
+    public String getPreviewCacheSummary() {
+        return previewLoader.getCache().getSummary();
+    }
+
+    /**
+     * Drops queued preview decodes for rows that have scrolled out of view
+     */
+    private void cancelHiddenPreviews() {
+        int first = photoList.getFirstVisibleIndex();
+        int last = photoList.getLastVisibleIndex();
+        if (first < 0) {
+            previewLoader.retainRows(0, -1);
+        } else {
+            previewLoader.retainRows(first, last);
+        }
+    }
+
+    /**
+     * List model over a plain array list, so a batch of photos is added with a
+     * single change event
+     */
+    private static final class PhotoListModel extends AbstractListModel<File> {
+        private final List<File> photos = new ArrayList<>();
+
+        @Override
+        public int getSize() {
+            return photos.size();
+        }
+
+        @Override
+        public File getElementAt(int index) {
+            return photos.get(index);
+        }
+
+        void append(List<File> added) {
+            if (added.isEmpty()) {
+                return;
+            }
+            int first = photos.size();
+            photos.addAll(added);
+            fireIntervalAdded(this, first, photos.size() - 1);
+        }
+
+        void setAll(List<File> replacement) {
+            int oldSize = photos.size();
+            photos.clear();
+            if (oldSize > 0) {
+                fireIntervalRemoved(this, 0, oldSize - 1);
+            }
+            append(replacement);
+        }
+    }
+
+    /**
+     * Shows a photo's name next to its preview, or next to an empty frame while the
+     * preview is loading
+     */
+    private final class PhotoCellRenderer extends DefaultListCellRenderer {
+        private final PreviewIcon icon = new PreviewIcon();
+
+        @Override
+        public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                                                      boolean isSelected, boolean cellHasFocus) {
+            File photo = (File) value;
+            super.getListCellRendererComponent(list, photo.getName(), index, isSelected, cellHasFocus);
+            icon.image = previewLoader.get(photo, index);
+            setIcon(icon);
+            setIconTextGap(8);
+            setToolTipText(photo.getPath());
+            return this;
+        }
+    }
+
+    /**
+     * Fixed-size icon that centres a preview, keeping the names aligned whatever the
+     * photos' aspect ratios
+     */
+    private static final class PreviewIcon implements Icon {
+        private BufferedImage image;
+
+        @Override
+        public void paintIcon(Component c, Graphics g, int x, int y) {
+            if (image == null) {
+                g.setColor(Color.LIGHT_GRAY);
+                g.drawRect(x + PREVIEW_EDGE / 4, y + PREVIEW_EDGE / 4, PREVIEW_EDGE / 2 - 1, PREVIEW_EDGE / 2 - 1);
+                return;
+            }
+            g.drawImage(image, x + (PREVIEW_EDGE - image.getWidth()) / 2,
+                    y + (PREVIEW_EDGE - image.getHeight()) / 2, null);
+        }
+
+        @Override
+        public int getIconWidth() {
+            return PREVIEW_EDGE;
+        }
+
+        @Override
+        public int getIconHeight() {
+            return PREVIEW_EDGE;
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,139 @@
+package git.campones76;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes a .gz sibling next to every text file of a gallery (HTML, CSS, JavaScript,
+ * JSON, SVG, plain text), so a static server can send precompressed files without
+ * compressing on each request. Files are compressed once at the highest level, in
+ * parallel.
+ */
+public class Precompressor {
+    public static final String SUFFIX = ".gz";
+    private static final String[] TEXT_EXTENSIONS = {"html", "css", "js", "json", "svg", "txt"};
+
+    private final int threadCount;
+
+    public Precompressor(int threadCount) {
+        this.threadCount = Math.max(1, threadCount);
+    }
+
+    /**
+     * Compresses every text file under dir and removes .gz files whose source is gone
+     * @return the number of files compressed
+     */
+    public int compressAll(File dir) throws IOException, InterruptedException {
+        List<File> sources = new ArrayList<>();
+        collect(dir, sources, true);
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threadCount, Math.max(1, sources.size())));
+        try {
+            List<Future<Void>> futures = new ArrayList<>(sources.size());
+            for (File source : sources) {
+                Callable<Void> task = () -> {
+                    compress(source);
+                    return null;
+                };
+                futures.add(executor.submit(task));
+            }
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    throw cause instanceof IOException ? (IOException) cause : new IOException(cause.getMessage(), cause);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return sources.size();
+    }
+
+    /**
+     * Removes every .gz sibling of a text file under dir, so a server does not keep
+     * sending outdated precompressed copies after an export without precompression
+     */
+    public static void removeAll(File dir) {
+        List<File> sources = new ArrayList<>();
+        collect(dir, sources, false);
+        for (File source : sources) {
+            File gzip = new File(source.getPath() + SUFFIX);
+            if (gzip.isFile() && !gzip.delete()) {
+                System.err.println("Could not remove old compressed file: " + gzip.getPath());
+            }
+        }
+    }
+
+    /**
+     * Collects the text files under dir; optionally deletes .gz files without a source
+     */
+    private static void collect(File dir, List<File> sources, boolean removeOrphans) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (file.isDirectory()) {
+                // Photos and thumbnails are already compressed
+                if (!name.equals(PhotoProcessor.PICTURES_DIR) && !name.equals(PhotoProcessor.THUMBNAILS_DIR)) {
+                    collect(file, sources, removeOrphans);
+                }
+            } else if (name.endsWith(SUFFIX)) {
+                File source = new File(dir, name.substring(0, name.length() - SUFFIX.length()));
+                if (removeOrphans && !source.isFile()) {
+                    file.delete();
+                }
+            } else if (isText(name) && !name.equals(ExportManifest.FILE_NAME)
+                    && !name.equals(StageStats.REPORT_FILE_NAME)) {
+                sources.add(file);
+            }
+        }
+    }
+
+    private static boolean isText(String name) {
+        String extension = FileUtils.getFileExtension(name).toLowerCase(Locale.ROOT);
+        for (String text : TEXT_EXTENSIONS) {
+            if (text.equals(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void compress(File source) throws IOException {
+        File target = new File(source.getPath() + SUFFIX);
+        File temp = new File(source.getPath() + SUFFIX + ".tmp");
+        try (OutputStream out = new BestGzipOutputStream(Files.newOutputStream(temp.toPath()))) {
+            Files.copy(source.toPath(), out);
+        }
+        // Same modification time as the source, as servers such as nginx gzip_static expect
+        temp.setLastModified(source.lastModified());
+        Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * GZIPOutputStream at the highest compression level; the cost is paid once per export
+     */
+    private static final class BestGzipOutputStream extends GZIPOutputStream {
+        BestGzipOutputStream(OutputStream out) throws IOException {
+            super(out, 64 * 1024);
+            def.setLevel(Deflater.BEST_COMPRESSION);
+        }
+    }
+}
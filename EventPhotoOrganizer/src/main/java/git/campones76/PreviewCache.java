@@ -0,0 +1,84 @@
+package git.campones76;
+
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least-recently-used cache of decoded preview images, bounded by the bytes of their
+ * pixels rather than by a count, so a few large previews cannot exhaust the heap.
+ * Used from the event dispatch thread only.
+ */
+public class PreviewCache<K> {
+    private final long capacityBytes;
+    // Access order: iteration starts at the least recently used entry
+    private final LinkedHashMap<K, BufferedImage> images = new LinkedHashMap<>(256, 0.75f, true);
+    private long usedBytes;
+    private long hits;
+    private long misses;
+
+    public PreviewCache(long capacityBytes) {
+        this.capacityBytes = capacityBytes;
+    }
+
+    /**
+     * @return the cached image, or null if it is not cached
+     */
+    public BufferedImage get(K key) {
+        BufferedImage image = images.get(key);
+        if (image != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return image;
+    }
+
+    /**
+     * Adds an image, evicting the least recently used ones until it fits
+     */
+    public void put(K key, BufferedImage image) {
+        BufferedImage previous = images.put(key, image);
+        if (previous != null) {
+            usedBytes -= sizeOf(previous);
+        }
+        usedBytes += sizeOf(image);
+        Iterator<Map.Entry<K, BufferedImage>> eldest = images.entrySet().iterator();
+        while (usedBytes > capacityBytes && eldest.hasNext()) {
+            Map.Entry<K, BufferedImage> entry = eldest.next();
+            if (entry.getKey().equals(key)) {
+                continue;
+            }
+            usedBytes -= sizeOf(entry.getValue());
+            eldest.remove();
+        }
+    }
+
+    public void clear() {
+        images.clear();
+        usedBytes = 0;
+    }
+
+    public int size() {
+        return images.size();
+    }
+
+    public long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * Entries, bytes used and hit rate, for display
+     */
+    public String getSummary() {
+        long lookups = hits + misses;
+        return String.format("%d previews, %.1f of %.1f MB, %d%% hits", images.size(),
+                usedBytes / (1024.0 * 1024), capacityBytes / (1024.0 * 1024),
+                lookups == 0 ? 0 : hits * 100 / lookups);
+    }
+
+    private static long sizeOf(BufferedImage image) {
+        return (long) image.getWidth() * image.getHeight() * 4;
+    }
+}
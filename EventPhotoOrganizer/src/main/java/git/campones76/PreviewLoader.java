@@ -0,0 +1,131 @@
+package git.campones76;
+
+import javax.swing.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Decodes small previews of photos on a bounded pool of background threads and keeps
+ * them in a {@link PreviewCache}. Requests for photos that scroll out of view are
+ * cancelled before they start, so fast scrolling only decodes what ends up visible.
+ * All methods must be called on the event dispatch thread; results are delivered there.
+ */
+public class PreviewLoader {
+    private final ThumbnailGenerator generator;
+    private final PreviewCache<File> cache;
+    private final ExecutorService executor;
+    // Queued or running decodes, with the list row each was requested for
+    private final Map<File, Request> pending = new HashMap<>();
+    private final Consumer<File> onLoaded;
+
+    /**
+     * @param edge long edge of the previews in pixels
+     * @param onLoaded called on the event dispatch thread when a preview is ready or failed
+     */
+    public PreviewLoader(int edge, long cacheBytes, Consumer<File> onLoaded) {
+        this.generator = new ThumbnailGenerator(85, ThumbnailSize.longEdge(edge));
+        this.cache = new PreviewCache<>(cacheBytes);
+        this.onLoaded = onLoaded;
+        int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+        AtomicInteger threadNumber = new AtomicInteger(1);
+        this.executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "preview-loader-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        ((ThreadPoolExecutor) executor).allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Returns the cached preview, or schedules its decode and returns null
+     * @param row the list row showing the photo, for {@link #retainRows}
+     */
+    public BufferedImage get(File photo, int row) {
+        BufferedImage image = cache.get(photo);
+        if (image != null) {
+            return image;
+        }
+        Request request = pending.get(photo);
+        if (request != null) {
+            request.row = row;
+        } else {
+            request = new Request(row);
+            pending.put(photo, request);
+            request.future = executor.submit(() -> decode(photo));
+        }
+        return null;
+    }
+
+    /**
+     * Cancels the queued decodes for rows outside first..last
+     */
+    public void retainRows(int first, int last) {
+        Iterator<Request> requests = pending.values().iterator();
+        while (requests.hasNext()) {
+            Request request = requests.next();
+            if ((request.row < first || request.row > last) && request.future.cancel(false)) {
+                requests.remove();
+            }
+        }
+        ((ThreadPoolExecutor) executor).purge();
+    }
+
+    /**
+     * Cancels every queued decode and empties the cache
+     */
+    public void clear() {
+        for (Request request : pending.values()) {
+            request.future.cancel(false);
+        }
+        pending.clear();
+        ((ThreadPoolExecutor) executor).purge();
+        cache.clear();
+    }
+
+    public PreviewCache<File> getCache() {
+        return cache;
+    }
+
+    private void decode(File photo) {
+        BufferedImage image;
+        try {
+            image = generator.readScaledImage(photo);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Could not load preview of " + photo.getName() + ": " + e.getMessage());
+            image = null;
+        }
+        BufferedImage result = image;
+        SwingUtilities.invokeLater(() -> {
+            Request request = pending.remove(photo);
+            if (request == null) {
+                // Cleared while decoding
+                return;
+            }
+            // Failures are cached as a 1x1 image so they are not retried on every repaint
+            cache.put(photo, result != null ? result : new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB));
+            onLoaded.accept(photo);
+        });
+    }
+
+    private static final class Request {
+        private int row;
+        private Future<?> future;
+
+        Request(int row) {
+            this.row = row;
+        }
+    }
+}
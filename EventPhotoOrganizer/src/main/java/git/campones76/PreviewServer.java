@@ -0,0 +1,389 @@
+package git.campones76;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serves an exported event folder on localhost, the way a production static server
+ * would: strong ETags derived from the file contents with If-None-Match revalidation,
+ * single-range requests for large originals, the precompressed .gz siblings of text
+ * files, and long cache lifetimes for the content-hashed libraries.
+ * <p>
+ * com.sun.net.httpserver only hands out the response as an OutputStream, so bodies
+ * cannot be sent zero-copy; they are copied through one reused buffer per server
+ * thread, which keeps the heap use per request constant whatever the file size.
+ * <p>
+ * Every request's latency is recorded; the percentiles are available from
+ * {@link #getLatencies()} and at /_preview/stats.
+ */
+public class PreviewServer {
+    public static final String STATS_PATH = "/_preview/stats";
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    // Copy buffer of each server thread, reused for every response it sends
+    private static final ThreadLocal<ByteBuffer> COPY_BUFFERS =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocate(COPY_BUFFER_SIZE));
+    private static final Map<String, String> CONTENT_TYPES = new HashMap<>();
+
+    static {
+        CONTENT_TYPES.put("html", "text/html; charset=utf-8");
+        CONTENT_TYPES.put("css", "text/css; charset=utf-8");
+        CONTENT_TYPES.put("js", "text/javascript; charset=utf-8");
+        CONTENT_TYPES.put("json", "application/json");
+        CONTENT_TYPES.put("txt", "text/plain; charset=utf-8");
+        CONTENT_TYPES.put("svg", "image/svg+xml");
+        CONTENT_TYPES.put("jpg", "image/jpeg");
+        CONTENT_TYPES.put("jpeg", "image/jpeg");
+        CONTENT_TYPES.put("png", "image/png");
+        CONTENT_TYPES.put("gif", "image/gif");
+        CONTENT_TYPES.put("bmp", "image/bmp");
+        CONTENT_TYPES.put("webp", "image/webp");
+        CONTENT_TYPES.put("ico", "image/x-icon");
+    }
+
+    private final Path root;
+    private final int port;
+    private final LatencyRecorder latencies = new LatencyRecorder();
+    // Content hash of every file served, until its size or modification time changes
+    private final Map<Path, ContentHash> contentHashes = new ConcurrentHashMap<>();
+    private ManifestHashes manifestHashes;
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * @param rootDir the event folder to serve
+     * @param port port on localhost, 0 for any free port
+     */
+    public PreviewServer(File rootDir, int port) {
+        this.root = rootDir.toPath().toAbsolutePath().normalize();
+        this.port = port;
+    }
+
+    public synchronized void start() throws IOException {
+        if (server != null) {
+            return;
+        }
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        AtomicInteger threadNumber = new AtomicInteger(1);
+        executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() * 2, runnable -> {
+            Thread thread = new Thread(runnable, "preview-server-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    public synchronized void stop() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+            server = null;
+        }
+    }
+
+    /**
+     * Address of the gallery, e.g. http://127.0.0.1:53124/
+     */
+    public synchronized URI getUri() {
+        InetSocketAddress address = server.getAddress();
+        return URI.create("http://" + address.getAddress().getHostAddress() + ":" + address.getPort() + "/");
+    }
+
+    /**
+     * Latencies of every request served so far
+     */
+    public LatencyRecorder getLatencies() {
+        return latencies;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        try {
+            serve(exchange);
+        } catch (IOException e) {
+            // Usually the browser cancelled the request
+            System.err.println("Preview request failed: " + exchange.getRequestURI() + ": " + e.getMessage());
+        } finally {
+            exchange.close();
+            latencies.record(System.nanoTime() - start);
+        }
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        boolean head = "HEAD".equals(method);
+        if (!head && !"GET".equals(method)) {
+            exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+            sendText(exchange, 405, "Method not allowed");
+            return;
+        }
+
+        String requestPath = exchange.getRequestURI().getPath();
+        if (STATS_PATH.equals(requestPath)) {
+            exchange.getResponseHeaders().set("Cache-Control", "no-store");
+            sendText(exchange, 200, latencies.getSummary() + "\n");
+            return;
+        }
+
+        Path path = root.resolve(requestPath.substring(1)).normalize();
+        if (!path.startsWith(root)) {
+            sendText(exchange, 403, "Forbidden");
+            return;
+        }
+        File file = path.toFile();
+        if (file.isDirectory()) {
+            file = new File(file, "index.html");
+        }
+        if (!file.isFile() || file.getName().endsWith(".tmp")) {
+            sendText(exchange, 404, "Not found");
+            return;
+        }
+
+        Headers request = exchange.getRequestHeaders();
+        Headers response = exchange.getResponseHeaders();
+        String contentType = CONTENT_TYPES.getOrDefault(
+                FileUtils.getFileExtension(file.getName()).toLowerCase(Locale.ROOT), "application/octet-stream");
+        response.set("Content-Type", contentType);
+        response.set("Cache-Control", requestPath.startsWith("/" + VendorLibraries.VENDOR_DIR + "/")
+                ? "public, max-age=31536000, immutable" : "no-cache");
+
+        // Serve the precompressed sibling to clients that accept it
+        File gzip = new File(file.getPath() + Precompressor.SUFFIX);
+        String acceptEncoding = request.getFirst("Accept-Encoding");
+        boolean compressed = gzip.isFile() && gzip.lastModified() >= file.lastModified()
+                && acceptEncoding != null && acceptEncoding.contains("gzip");
+        if (gzip.isFile()) {
+            response.set("Vary", "Accept-Encoding");
+        }
+        File body = compressed ? gzip : file;
+        if (compressed) {
+            response.set("Content-Encoding", "gzip");
+        }
+
+        long length = body.length();
+        String etag = "\"" + getContentHash(body).substring(0, 32) + "\"";
+        response.set("ETag", etag);
+        response.set("Accept-Ranges", compressed ? "none" : "bytes");
+
+        if (matches(request.getFirst("If-None-Match"), etag)) {
+            exchange.sendResponseHeaders(304, -1);
+            return;
+        }
+
+        long offset = 0;
+        long count = length;
+        int status = 200;
+        String range = request.getFirst("Range");
+        String ifRange = request.getFirst("If-Range");
+        if (range != null && !compressed && (ifRange == null || ifRange.equals(etag))) {
+            long[] bounds = parseRange(range, length);
+            if (bounds == null) {
+                response.set("Content-Range", "bytes */" + length);
+                sendText(exchange, 416, "Range not satisfiable");
+                return;
+            }
+            if (bounds.length == 2) {
+                offset = bounds[0];
+                count = bounds[1] - bounds[0] + 1;
+                status = 206;
+                response.set("Content-Range", "bytes " + bounds[0] + "-" + bounds[1] + "/" + length);
+            }
+        }
+
+        if (head) {
+            response.set("Content-Length", String.valueOf(count));
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        // An empty body must be announced as -1, not 0 (which means chunked)
+        exchange.sendResponseHeaders(status, count == 0 ? -1 : count);
+        if (count > 0) {
+            sendRange(body, offset, count, exchange.getResponseBody());
+        }
+    }
+
+    /**
+     * SHA-256 of a file's contents. Copied pictures take the hash the export manifest
+     * recorded for their source, so large originals are not read just to label them;
+     * other files are hashed once and again only after their size or time changes.
+     */
+    private String getContentHash(File file) throws IOException {
+        Path path = file.toPath();
+        long size = file.length();
+        long lastModified = file.lastModified();
+        ContentHash cached = contentHashes.get(path);
+        if (cached != null && cached.size == size && cached.lastModified == lastModified) {
+            return cached.hash;
+        }
+        String hash = getManifestHashes().get(root.relativize(path), size);
+        if (hash == null) {
+            hash = FileUtils.sha256(file);
+        }
+        contentHashes.put(path, new ContentHash(size, lastModified, hash));
+        return hash;
+    }
+
+    /**
+     * The hashes of the current export manifest, reloaded when an export rewrites it
+     */
+    private synchronized ManifestHashes getManifestHashes() {
+        File manifestFile = new File(root.toFile(), ExportManifest.FILE_NAME);
+        long lastModified = manifestFile.lastModified();
+        if (manifestHashes == null || manifestHashes.lastModified != lastModified) {
+            manifestHashes = new ManifestHashes(lastModified, ExportManifest.load(root.toFile()));
+        }
+        return manifestHashes;
+    }
+
+    private static final class ContentHash {
+        private final long size;
+        private final long lastModified;
+        private final String hash;
+
+        private ContentHash(long size, long lastModified, String hash) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+    }
+
+    /**
+     * Source hashes of the copied pictures in an export manifest, by output path
+     */
+    private static final class ManifestHashes {
+        private final long lastModified;
+        private final Map<String, ExportManifest.Entry> byPicture = new HashMap<>();
+
+        private ManifestHashes(long lastModified, ExportManifest manifest) {
+            this.lastModified = lastModified;
+            for (ExportManifest.Entry entry : manifest.getEntries()) {
+                if (!entry.getOutputs().isEmpty()) {
+                    byPicture.put(entry.getOutputs().get(0), entry);
+                }
+            }
+        }
+
+        /**
+         * @return the recorded hash, or null if the picture is not in the manifest or
+         *         its size no longer matches the source's
+         */
+        private String get(Path picture, long size) {
+            ExportManifest.Entry entry = byPicture.get(picture.toString().replace(File.separatorChar, '/'));
+            if (entry == null || entry.getSize() != size || entry.getContentHash().length() != 64) {
+                return null;
+            }
+            return entry.getContentHash();
+        }
+    }
+
+    /**
+     * Writes part of a file through this thread's copy buffer
+     */
+    private static void sendRange(File file, long offset, long count, OutputStream out) throws IOException {
+        ByteBuffer buffer = COPY_BUFFERS.get();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long position = offset;
+            long end = offset + count;
+            while (position < end) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+                int read = channel.read(buffer, position);
+                if (read < 0) {
+                    throw new IOException("File shrank while being sent: " + file.getName());
+                }
+                out.write(buffer.array(), 0, read);
+                position += read;
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Whether an If-None-Match header matches the ETag
+     */
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String trimmed = candidate.trim();
+            if (trimmed.equals("*") || trimmed.equals(etag) || trimmed.equals("W/" + etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parses a single byte range
+     * @return {first, last} for a satisfiable range, an empty array if the header should
+     *         be ignored (multiple ranges or another unit), null if it cannot be satisfied
+     */
+    static long[] parseRange(String header, long length) {
+        if (!header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+            return new long[0];
+        }
+        String spec = header.substring(6).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return new long[0];
+        }
+        try {
+            long first;
+            long last;
+            if (dash == 0) {
+                // Suffix range: the last n bytes
+                long suffix = Long.parseLong(spec.substring(1));
+                if (suffix == 0) {
+                    return null;
+                }
+                first = Math.max(0, length - suffix);
+                last = length - 1;
+            } else {
+                first = Long.parseLong(spec.substring(0, dash));
+                last = dash == spec.length() - 1 ? length - 1
+                        : Math.min(length - 1, Long.parseLong(spec.substring(dash + 1)));
+            }
+            if (first >= length || first > last) {
+                return null;
+            }
+            return new long[]{first, last};
+        } catch (NumberFormatException e) {
+            return new long[0];
+        }
+    }
+
+    private static void sendText(HttpExchange exchange, int status, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            exchange.getResponseHeaders().set("Content-Length", String.valueOf(bytes.length));
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
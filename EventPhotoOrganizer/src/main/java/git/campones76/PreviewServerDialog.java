@@ -0,0 +1,86 @@
+package git.campones76;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Window that runs a {@link PreviewServer} for a generated gallery, opens it in the
+ * browser and shows the request latency percentiles while it runs.
+ * Closing the window stops the server.
+ */
+public class PreviewServerDialog extends JDialog {
+    private final PreviewServer server;
+    private final Timer statsTimer;
+
+    private PreviewServerDialog(Frame owner, File galleryDir, PreviewServer server) {
+        super(owner, "Gallery Preview", false);
+        this.server = server;
+
+        JLabel urlLabel = new JLabel("Serving " + galleryDir.getName() + " at " + server.getUri());
+        JLabel statsLabel = new JLabel("Latency: " + server.getLatencies().getSummary());
+        statsTimer = new Timer(1000, e -> statsLabel.setText("Latency: " + server.getLatencies().getSummary()));
+
+        JButton openButton = new JButton("Open in Browser");
+        openButton.addActionListener(e -> openInBrowser());
+        JButton resetButton = new JButton("Reset Stats");
+        resetButton.addActionListener(e -> server.getLatencies().reset());
+        JButton stopButton = new JButton("Stop Server");
+        stopButton.addActionListener(e -> dispose());
+
+        JPanel labels = new JPanel(new GridLayout(2, 1, 0, 5));
+        labels.add(urlLabel);
+        labels.add(statsLabel);
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        buttons.add(openButton);
+        buttons.add(resetButton);
+        buttons.add(stopButton);
+
+        JPanel content = new JPanel(new BorderLayout(10, 10));
+        content.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+        content.add(labels, BorderLayout.CENTER);
+        content.add(buttons, BorderLayout.SOUTH);
+        setContentPane(content);
+        pack();
+
+        setDefaultCloseOperation(DISPOSE_ON_CLOSE);
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                statsTimer.stop();
+                server.stop();
+            }
+        });
+    }
+
+    /**
+     * Starts a preview server for the gallery, shows this window and opens the browser
+     * @throws IOException if the server cannot be started
+     */
+    public static PreviewServerDialog open(Component parent, File galleryDir) throws IOException {
+        PreviewServer server = new PreviewServer(galleryDir, 0);
+        server.start();
+        // The main window passes itself, which has no window ancestor
+        Window window = parent instanceof Window ? (Window) parent : SwingUtilities.getWindowAncestor(parent);
+        PreviewServerDialog dialog = new PreviewServerDialog(
+                window instanceof Frame ? (Frame) window : null, galleryDir, server);
+        dialog.setLocationRelativeTo(parent);
+        dialog.setVisible(true);
+        dialog.statsTimer.start();
+        dialog.openInBrowser();
+        return dialog;
+    }
+
+    private void openInBrowser() {
+        try {
+            if (Desktop.isDesktopSupported() && Desktop.getDesktop().isSupported(Desktop.Action.BROWSE)) {
+                Desktop.getDesktop().browse(server.getUri());
+            }
+        } catch (IOException e) {
+            System.err.println("Could not open browser: " + e.getMessage());
+        }
+    }
+}
@@ -4,24 +4,42 @@ import javax.swing.*;
 import java.awt.*;
 
 /**
- * Panel for controlling thumbnail quality settings
+ * Panel for controlling thumbnail quality and size settings
  */
 public class QualityControlPanel extends JPanel {
     private final JSlider qualitySlider;
     private final JLabel qualityLabel;
     private final JButton autoButton;
+    private final JComboBox<String> sizeComboBox;
+    private final JComboBox<String> targetComboBox;
     private static final int DEFAULT_QUALITY = 85;
 
+    private static final String[] SIZE_OPTIONS = {
+            "Gallery mosaic (fit " + HTMLGenerator.getLargestTileWidth() + "x"
+                    + HTMLGenerator.getLargestTileHeight() + ")",
+            "Long edge 1024 px",
+            "Long edge 1600 px",
+            "Long edge 2048 px",
+            "Same % of original as quality (legacy)"
+    };
+
+    private static final String[] TARGET_OPTIONS = {
+            "Off (use quality)", "20 KB", "40 KB", "80 KB", "150 KB"
+    };
+    private static final int[] TARGET_KILOBYTES = {0, 20, 40, 80, 150};
+
     public QualityControlPanel() {
         qualitySlider = new JSlider(JSlider.HORIZONTAL, 0, 100, DEFAULT_QUALITY);
         qualityLabel = new JLabel(DEFAULT_QUALITY + "%");
         autoButton = new JButton("Default");
+        sizeComboBox = new JComboBox<>(SIZE_OPTIONS);
+        targetComboBox = new JComboBox<>(TARGET_OPTIONS);
         initializeUI();
     }
 
     private void initializeUI() {
         setLayout(new BoxLayout(this, BoxLayout.Y_AXIS));
-        setMaximumSize(new Dimension(600, 80));
+        setMaximumSize(new Dimension(600, 150));
         setOpaque(false);
 
         // Title and auto button row
@@ -62,6 +80,44 @@ public class QualityControlPanel extends JPanel {
         sliderPanel.add(qualitySlider, BorderLayout.CENTER);
         sliderPanel.setAlignmentX(Component.LEFT_ALIGNMENT);
         add(sliderPanel);
+        add(Box.createVerticalStrut(5));
+
+        // Thumbnail size row
+        JPanel sizePanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 10, 0));
+        sizePanel.setMaximumSize(new Dimension(600, 30));
+        sizePanel.setOpaque(false);
+
+        JLabel sizeLabel = new JLabel("Thumbnail Size:");
+        sizeLabel.setForeground(Color.WHITE);
+        sizePanel.add(sizeLabel);
+        sizeComboBox.setToolTipText("Dimensions of the generated thumbnails, independent of quality");
+        sizePanel.add(sizeComboBox);
+
+        sizePanel.setAlignmentX(Component.LEFT_ALIGNMENT);
+        add(sizePanel);
+        add(Box.createVerticalStrut(5));
+
+        // Target file size row
+        JPanel targetPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 10, 0));
+        targetPanel.setMaximumSize(new Dimension(600, 30));
+        targetPanel.setOpaque(false);
+
+        JLabel targetLabel = new JLabel("Target File Size:");
+        targetLabel.setForeground(Color.WHITE);
+        targetPanel.add(targetLabel);
+        targetComboBox.setToolTipText("Searches each thumbnail's quality so its file just fits this size, " +
+                "keeping gallery bandwidth predictable. Replaces the quality slider when set.");
+        targetPanel.add(targetComboBox);
+
+        targetPanel.setAlignmentX(Component.LEFT_ALIGNMENT);
+        add(targetPanel);
+    }
+
+    /**
+     * Gets the byte budget per thumbnail, or 0 to use the quality setting
+     */
+    public int getTargetBytes() {
+        return TARGET_KILOBYTES[targetComboBox.getSelectedIndex()] * 1024;
     }
 
     /**
@@ -71,6 +127,24 @@ public class QualityControlPanel extends JPanel {
         return qualitySlider.getValue();
     }
 
+    /**
+     * Gets the selected thumbnail size
+     */
+    public ThumbnailSize getThumbnailSize() {
+        switch (sizeComboBox.getSelectedIndex()) {
+            case 1:
+                return ThumbnailSize.longEdge(1024);
+            case 2:
+                return ThumbnailSize.longEdge(1600);
+            case 3:
+                return ThumbnailSize.longEdge(2048);
+            case 4:
+                return ThumbnailSize.percentOfOriginal(getQuality());
+            default:
+                return ThumbnailSize.forGalleryMosaic();
+        }
+    }
+
     /**
      * Sets the quality to a specific value
      */
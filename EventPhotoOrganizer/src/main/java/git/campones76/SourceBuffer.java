@@ -0,0 +1,185 @@
+package git.campones76;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reads a source photo once, so the copy into pictures/, the checksum and the decoder
+ * all work from the same bytes instead of each reading the card again. Each export
+ * keeps its own set of direct buffers: a worker borrows one for a photo with
+ * {@link #read}, gives it back with {@link #release}, and the next photo reuses it.
+ * Buffers grow to the largest photo and are dropped by {@link #clear} when the export
+ * ends, so idle workers of a long-lived scheduler hold none.
+ * <p>
+ * The buffers of all exports together stay under {@link #DIRECT_LIMIT}. A photo that
+ * does not fit is not waited for; it takes the file path, read separately by each
+ * stage, as photos larger than {@link #MAX_BYTES} always do.
+ */
+public class SourceBuffer {
+    /**
+     * Larger files are not held in memory; they are read separately by each stage
+     */
+    public static final long MAX_BYTES = 256L * 1024 * 1024;
+    /**
+     * Direct memory all source buffers may hold together: a quarter of the maximum heap,
+     * which is also the JVM's default limit for direct memory
+     */
+    public static final long DIRECT_LIMIT = Runtime.getRuntime().maxMemory() / 4;
+    private static final int GROWTH_STEP = 4 * 1024 * 1024;
+    // Capacity of every buffer allocated and not yet dropped, across all exports
+    private static final AtomicLong DIRECT_BYTES = new AtomicLong();
+
+    private final List<ByteBuffer> idle = new ArrayList<>();
+    // The buffer behind each read-only view handed out by read
+    private final Map<ByteBuffer, ByteBuffer> lent = new IdentityHashMap<>();
+
+    /**
+     * Reads the whole file into a buffer lent to the caller until {@link #release}
+     * @return the file's bytes, read-only, or null if the file is larger than
+     *         {@link #MAX_BYTES} or does not fit under {@link #DIRECT_LIMIT} right now
+     * @throws IOException if the file cannot be read completely
+     */
+    public ByteBuffer read(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > MAX_BYTES) {
+                return null;
+            }
+            ByteBuffer buffer = acquire((int) size);
+            if (buffer == null) {
+                return null;
+            }
+            ByteBuffer content = null;
+            try {
+                buffer.clear().limit((int) size);
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer) < 0) {
+                        throw new IOException("File shrank while reading: " + file.getName());
+                    }
+                }
+                buffer.flip();
+                content = buffer.asReadOnlyBuffer();
+                synchronized (this) {
+                    lent.put(content, buffer);
+                }
+                return content;
+            } finally {
+                if (content == null) {
+                    synchronized (this) {
+                        idle.add(buffer);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Gives back the buffer behind content, as returned by {@link #read}
+     * @param content may be null, for photos that took the file path
+     */
+    public synchronized void release(ByteBuffer content) {
+        if (content == null) {
+            return;
+        }
+        ByteBuffer buffer = lent.remove(content);
+        if (buffer != null) {
+            idle.add(buffer);
+        }
+    }
+
+    /**
+     * Drops the buffers not lent out, once an export has ended. Their memory is
+     * returned by the garbage collector, which the JVM runs when direct memory gets short.
+     */
+    public synchronized void clear() {
+        for (ByteBuffer buffer : idle) {
+            DIRECT_BYTES.addAndGet(-buffer.capacity());
+        }
+        idle.clear();
+    }
+
+    /**
+     * The smallest idle buffer that holds size bytes, or a new one if the limit allows;
+     * idle buffers too small for the photo are dropped to make room
+     */
+    private synchronized ByteBuffer acquire(int size) {
+        ByteBuffer best = null;
+        for (ByteBuffer buffer : idle) {
+            if (buffer.capacity() >= size && (best == null || buffer.capacity() < best.capacity())) {
+                best = buffer;
+            }
+        }
+        if (best != null) {
+            idle.remove(best);
+            return best;
+        }
+        // Round up so a run of slightly larger photos does not reallocate each time
+        int capacity = (int) Math.min(MAX_BYTES, ((long) size + GROWTH_STEP - 1) / GROWTH_STEP * GROWTH_STEP);
+        while (!reserveDirect(capacity)) {
+            if (idle.isEmpty()) {
+                return null;
+            }
+            DIRECT_BYTES.addAndGet(-idle.remove(idle.size() - 1).capacity());
+        }
+        return ByteBuffer.allocateDirect(capacity);
+    }
+
+    private static boolean reserveDirect(long bytes) {
+        while (true) {
+            long used = DIRECT_BYTES.get();
+            if (used + bytes > DIRECT_LIMIT) {
+                return false;
+            }
+            if (DIRECT_BYTES.compareAndSet(used, used + bytes)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * An InputStream over the remaining bytes of content, leaving content itself untouched
+     */
+    public static InputStream inputStream(ByteBuffer content) {
+        ByteBuffer data = content.duplicate();
+        return new InputStream() {
+            @Override
+            public int read() {
+                return data.hasRemaining() ? data.get() & 0xFF : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (len == 0) {
+                    return 0;
+                }
+                if (!data.hasRemaining()) {
+                    return -1;
+                }
+                int count = Math.min(len, data.remaining());
+                data.get(b, off, count);
+                return count;
+            }
+
+            @Override
+            public long skip(long n) {
+                int count = (int) Math.max(0, Math.min(n, data.remaining()));
+                data.position(data.position() + count);
+                return count;
+            }
+
+            @Override
+            public int available() {
+                return data.remaining();
+            }
+        };
+    }
+}
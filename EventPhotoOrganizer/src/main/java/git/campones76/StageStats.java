@@ -0,0 +1,184 @@
+package git.campones76;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Times the stages of an export. Every timing is emitted as an {@link ExportStageEvent}
+ * for Flight Recorder and added to per-stage latency statistics, which are written to
+ * export-report.txt at the end of the run. Safe to use from several threads at once.
+ */
+public class StageStats {
+    public static final String REPORT_FILE_NAME = "export-report.txt";
+
+    public enum Stage {
+        ORDER("order"),
+        FINGERPRINT("fingerprint"),
+        CACHE("thumbnail cache"),
+        INGEST("source read"),
+        TRANSFER("transfer"),
+        CHECKSUM("checksum"),
+        DECODE("decode"),
+        SCALE("scale"),
+        ENCODE("encode"),
+        PREVIEW("preview"),
+        NEAR_DUPLICATES("near-duplicates"),
+        ASSETS("assets"),
+        HTML("html"),
+        PRECOMPRESS("precompress");
+
+        private final String label;
+
+        Stage(String label) {
+            this.label = label;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    private final boolean collecting;
+    private final Map<Stage, LatencyRecorder> latencies = new EnumMap<>(Stage.class);
+    private final Map<Stage, AtomicLong> bytes = new EnumMap<>(Stage.class);
+    private final Map<Stage, AtomicLong> pixels = new EnumMap<>(Stage.class);
+
+    public StageStats() {
+        this(true);
+    }
+
+    private StageStats(boolean collecting) {
+        this.collecting = collecting;
+        for (Stage stage : Stage.values()) {
+            latencies.put(stage, new LatencyRecorder());
+            bytes.put(stage, new AtomicLong());
+            pixels.put(stage, new AtomicLong());
+        }
+    }
+
+    /**
+     * Statistics that only emit Flight Recorder events, for code outside an export
+     */
+    public static StageStats eventsOnly() {
+        return new StageStats(false);
+    }
+
+    /**
+     * Starts timing a stage; closing the returned timing records it
+     * @param file the file the stage works on, or null for whole-export stages
+     */
+    public Timing start(Stage stage, String file) {
+        return new Timing(stage, file);
+    }
+
+    public LatencyRecorder getLatencies(Stage stage) {
+        return latencies.get(stage);
+    }
+
+    public long getBytes(Stage stage) {
+        return bytes.get(stage).get();
+    }
+
+    /**
+     * Writes the per-stage statistics to export-report.txt in destDir
+     * @param photoCount photos in the export
+     * @param elapsedNanos wall-clock time of the whole export
+     */
+    public void writeReport(File destDir, int photoCount, long elapsedNanos, String settings) throws IOException {
+        File reportFile = new File(destDir, REPORT_FILE_NAME);
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(reportFile.toPath(), StandardCharsets.UTF_8))) {
+            double seconds = elapsedNanos / 1e9;
+            writer.println("Export report");
+            writer.println(settings);
+            writer.printf("Photos: %d in %.2f s (%.1f images/s)%n", photoCount, seconds,
+                    seconds > 0 ? photoCount / seconds : 0);
+            writer.printf("Originals read: %s, thumbnails written: %s%n",
+                    formatBytes(getBytes(Stage.TRANSFER)), formatBytes(getBytes(Stage.ENCODE)));
+            writer.println();
+            writer.println("Times are per call, in milliseconds; total is summed over all workers.");
+            writer.printf("%-16s %7s %10s %9s %9s %9s %12s %10s%n",
+                    "stage", "count", "total s", "p50", "p95", "max", "megapixels", "MB");
+            for (Stage stage : Stage.values()) {
+                LatencyRecorder recorder = latencies.get(stage);
+                if (recorder.getCount() == 0) {
+                    continue;
+                }
+                writer.printf("%-16s %7d %10.2f %9.2f %9.2f %9.2f %12.1f %10.1f%n", stage, recorder.getCount(),
+                        recorder.getTotal() / 1e9, recorder.getPercentile(50) / 1e6,
+                        recorder.getPercentile(95) / 1e6, recorder.getPercentile(100) / 1e6,
+                        pixels.get(stage).get() / 1e6, bytes.get(stage).get() / (1024.0 * 1024));
+            }
+        }
+    }
+
+    private static String formatBytes(long count) {
+        return String.format("%.1f MB", count / (1024.0 * 1024));
+    }
+
+    /**
+     * Work timed as a whole by {@link #time}
+     */
+    public interface Action {
+        void run() throws IOException, InterruptedException;
+    }
+
+    /**
+     * Runs action as one timing of stage, for stages with no pixel or byte counts
+     */
+    public void time(Stage stage, Action action) throws IOException, InterruptedException {
+        Timing timing = start(stage, null);
+        try {
+            action.run();
+        } finally {
+            timing.close();
+        }
+    }
+
+    /**
+     * One timed stage; set the pixels and bytes it handled before closing it
+     */
+    public final class Timing implements AutoCloseable {
+        private final ExportStageEvent event = new ExportStageEvent();
+        private final Stage stage;
+        private final long start = System.nanoTime();
+        private long pixelCount;
+        private long byteCount;
+
+        private Timing(Stage stage, String file) {
+            this.stage = stage;
+            event.stage = stage.toString();
+            event.file = file;
+            event.begin();
+        }
+
+        public void setPixels(long pixelCount) {
+            this.pixelCount = pixelCount;
+        }
+
+        public void setBytes(long byteCount) {
+            this.byteCount = byteCount;
+        }
+
+        @Override
+        public void close() {
+            event.end();
+            if (event.shouldCommit()) {
+                event.pixels = pixelCount;
+                event.bytes = byteCount;
+                event.commit();
+            }
+            if (collecting) {
+                latencies.get(stage).record(System.nanoTime() - start);
+                bytes.get(stage).addAndGet(byteCount);
+                pixels.get(stage).addAndGet(pixelCount);
+            }
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package git.campones76;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Disk cache of generated thumbnails shared by every export, so a photo published in
+ * several galleries is only decoded and encoded once. Entries are keyed by the
+ * source's content hash and the thumbnail settings, and hold every thumbnail size
+ * with its preview and perceptual hash.
+ * <p>
+ * The cache is capped in bytes and evicts the least recently used entries. Entries
+ * are written to a temporary folder and renamed into place, so readers never see a
+ * partial entry; one instance per folder is shared by all threads of the process.
+ */
+public class ThumbnailCache {
+    private static final String META_FILE = "meta.txt";
+    private static final String META_HEADER = "# thumbnail cache entry v1";
+    private static final Map<File, ThumbnailCache> INSTANCES = new HashMap<>();
+
+    private final File dir;
+    private volatile long capacityBytes;
+    // Access order: iteration starts at the least recently used entry
+    private final LinkedHashMap<String, Long> sizes = new LinkedHashMap<>(256, 0.75f, true);
+    private long usedBytes;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private ThumbnailCache(File dir, long capacityBytes) {
+        this.dir = dir;
+        this.capacityBytes = capacityBytes;
+    }
+
+    /**
+     * Folder used when none is configured: ~/.eventphotoorganizer/thumbnail-cache
+     */
+    public static File getDefaultDir() {
+        return new File(new File(System.getProperty("user.home"), ".eventphotoorganizer"), "thumbnail-cache");
+    }
+
+    /**
+     * Opens the cache in dir, creating the folder if needed; repeated calls for the
+     * same folder return the same instance, with the latest capacity. A lower capacity
+     * takes effect at the next {@link #put} or {@link #trimToCapacity}.
+     */
+    public static ThumbnailCache open(File dir, long capacityBytes) {
+        File key = dir.getAbsoluteFile();
+        ThumbnailCache cache;
+        synchronized (INSTANCES) {
+            cache = INSTANCES.get(key);
+            if (cache == null) {
+                cache = new ThumbnailCache(key, capacityBytes);
+                cache.loadIndex();
+                INSTANCES.put(key, cache);
+            }
+        }
+        cache.capacityBytes = capacityBytes;
+        return cache;
+    }
+
+    /**
+     * Copies the cached thumbnails of a source into thumbnailsDir under baseName
+     * @return the result as {@link ThumbnailGenerator#createThumbnails} would have
+     *         returned it, or null on a miss
+     */
+    public ThumbnailResult get(String contentHash, String settings, File thumbnailsDir, String baseName) {
+        String key = key(contentHash, settings);
+        File entryDir = new File(dir, key);
+        synchronized (this) {
+            if (sizes.get(key) == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+        }
+        try {
+            List<String> meta = Files.readAllLines(new File(entryDir, META_FILE).toPath(), StandardCharsets.UTF_8);
+            if (meta.size() < 4 || !META_HEADER.equals(meta.get(0))) {
+                throw new IOException("Malformed cache entry");
+            }
+            ThumbnailPreview preview = ThumbnailPreview.parse(meta.get(1));
+            if (preview == null) {
+                throw new IOException("Malformed cache entry");
+            }
+            long perceptualHash = Long.parseUnsignedLong(meta.get(2), 16);
+            List<File> files = new ArrayList<>();
+            for (int i = 3; i < meta.size(); i++) {
+                // <cached file>\t<folder under thumbnails, empty for the main size>\t<extension>
+                String[] fields = meta.get(i).split("\t", -1);
+                File folder = fields[1].isEmpty() ? thumbnailsDir : new File(thumbnailsDir, fields[1]);
+                folder.mkdirs();
+                File dest = new File(folder, baseName + "." + fields[2]);
+                File temp = new File(dest.getPath() + ".tmp");
+                Files.copy(new File(entryDir, fields[0]).toPath(), temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                Files.move(temp.toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                files.add(dest);
+            }
+            // Recency survives restarts through the folder's modification time
+            entryDir.setLastModified(System.currentTimeMillis());
+            hits.incrementAndGet();
+            return new ThumbnailResult(files, preview, perceptualHash);
+        } catch (IOException | RuntimeException e) {
+            // Evicted by another process, or damaged: forget it and make the thumbnails again
+            remove(key);
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    /**
+     * Stores freshly generated thumbnails; failures only print a warning
+     */
+    public void put(String contentHash, String settings, File thumbnailsDir, ThumbnailResult result) {
+        String key = key(contentHash, settings);
+        synchronized (this) {
+            if (sizes.containsKey(key)) {
+                return;
+            }
+        }
+        File temp = new File(dir, key + "." + UUID.randomUUID() + ".tmp");
+        try {
+            temp.mkdirs();
+            long size = 0;
+            try (PrintWriter meta = new PrintWriter(Files.newBufferedWriter(
+                    new File(temp, META_FILE).toPath(), StandardCharsets.UTF_8))) {
+                meta.println(META_HEADER);
+                meta.println(result.getPreview().format());
+                meta.println(Long.toHexString(result.getPerceptualHash()));
+                List<File> files = result.getFiles();
+                for (int i = 0; i < files.size(); i++) {
+                    File file = files.get(i);
+                    String extension = FileUtils.getFileExtension(file.getName());
+                    String folder = file.getParentFile().equals(thumbnailsDir) ? "" : file.getParentFile().getName();
+                    String cachedName = i + "." + extension;
+                    Files.copy(file.toPath(), new File(temp, cachedName).toPath());
+                    size += file.length();
+                    meta.println(cachedName + "\t" + folder + "\t" + extension);
+                }
+            }
+            if (size > capacityBytes) {
+                deleteRecursively(temp);
+                return;
+            }
+            try {
+                Files.move(temp.toPath(), new File(dir, key).toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                // Another worker or process stored the same entry first
+                deleteRecursively(temp);
+                return;
+            }
+            synchronized (this) {
+                sizes.put(key, size);
+                usedBytes += size;
+            }
+            trimToCapacity();
+        } catch (IOException e) {
+            deleteRecursively(temp);
+            System.err.println("Could not add thumbnails to the cache: " + e.getMessage());
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Hits, misses, evictions and size, for display
+     */
+    public synchronized String getSummary() {
+        return String.format("%d hits, %d misses, %d evicted; %d entries, %s of %s", hits.get(), misses.get(),
+                evictions.get(), sizes.size(), FileTransfer.formatBytes(usedBytes), FileTransfer.formatBytes(capacityBytes));
+    }
+
+    /**
+     * Starts counting hits and misses again, e.g. for a new export
+     */
+    public void resetStatistics() {
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+    }
+
+    private static String key(String contentHash, String settings) {
+        byte[] digest = FileUtils.newSha256().digest((contentHash + "\n" + settings).getBytes(StandardCharsets.UTF_8));
+        return FileUtils.toHex(digest);
+    }
+
+    /**
+     * Builds the index from the entries on disk, least recently used first, and
+     * removes temporary folders left by interrupted writes
+     */
+    private void loadIndex() {
+        dir.mkdirs();
+        File[] entries = dir.listFiles();
+        if (entries == null) {
+            return;
+        }
+        Arrays.sort(entries, Comparator.comparingLong(File::lastModified));
+        for (File entry : entries) {
+            if (entry.getName().endsWith(".tmp")) {
+                deleteRecursively(entry);
+            } else if (entry.isDirectory()) {
+                long size = 0;
+                File[] files = entry.listFiles();
+                if (files != null) {
+                    for (File file : files) {
+                        if (!file.getName().equals(META_FILE)) {
+                            size += file.length();
+                        }
+                    }
+                }
+                sizes.put(entry.getName(), size);
+                usedBytes += size;
+            }
+        }
+    }
+
+    /**
+     * Evicts the least recently used entries until the cache fits its capacity
+     */
+    public void trimToCapacity() {
+        List<String> evicted = new ArrayList<>();
+        synchronized (this) {
+            Iterator<Map.Entry<String, Long>> eldest = sizes.entrySet().iterator();
+            while (usedBytes > capacityBytes && eldest.hasNext()) {
+                Map.Entry<String, Long> entry = eldest.next();
+                usedBytes -= entry.getValue();
+                evicted.add(entry.getKey());
+                eldest.remove();
+            }
+        }
+        for (String key : evicted) {
+            deleteEntry(key);
+            evictions.incrementAndGet();
+        }
+    }
+
+    private void remove(String key) {
+        synchronized (this) {
+            Long size = sizes.remove(key);
+            if (size == null) {
+                return;
+            }
+            usedBytes -= size;
+        }
+        deleteEntry(key);
+    }
+
+    /**
+     * Renames the entry away before deleting it, so no reader sees it half deleted
+     */
+    private void deleteEntry(String key) {
+        File entry = new File(dir, key);
+        File doomed = new File(dir, key + "." + UUID.randomUUID() + ".tmp");
+        if (entry.renameTo(doomed)) {
+            deleteRecursively(doomed);
+        }
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
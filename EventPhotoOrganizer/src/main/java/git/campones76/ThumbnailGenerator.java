@@ -1,30 +1,92 @@
 package git.campones76;
 
 import javax.imageio.*;
-import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.ImageInputStream;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.Iterator;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
- * Handles thumbnail generation with configurable quality
- * Quality affects both the thumbnail size (as % of original) and compression quality
+ * Handles thumbnail generation with configurable size and quality
+ * Size is set by a {@link ThumbnailSize}; quality controls the compression
+ * Optionally writes a ladder of smaller and larger sizes from the same decode instead
+ * of the single main thumbnail.
+ * With a byte budget, the quality of each thumbnail is instead searched for so that
+ * its file just fits the budget, scaled by area for the ladder sizes.
  */
 public class ThumbnailGenerator {
     private final int qualityPercent;
     private final float compressionQuality;
+    private final ThumbnailSize thumbnailSize;
+    private final int[] ladder;
+    // "webp", or "jpg" when no WebP writer is installed
+    private final String outputFormat;
+    private MemoryBudget memoryBudget;
+    private StageStats stageStats = StageStats.eventsOnly();
+    private ThumbnailCache cache;
+    private int targetBytes;
+
+    // Lowest and highest quality the budget search may pick
+    private static final int MIN_SEARCH_QUALITY = 10;
+    private static final int MAX_SEARCH_QUALITY = 95;
+    // A thumbnail this close below the budget is accepted without further encodes
+    private static final double BUDGET_TOLERANCE = 0.10;
+    // Rough growth of the log of the encoded size per quality point, for the first step
+    private static final double LOG_SIZE_PER_QUALITY = 0.02;
+    // First quality tried by every budget search. A fixed start rather than the quality
+    // of the previous thumbnail makes the result depend on the photo alone, not on the
+    // order workers happened to finish in, at the cost of a step or two more per photo.
+    private static final int START_SEARCH_QUALITY = 75;
+    private final LongAdder budgetedThumbnails = new LongAdder();
+    private final LongAdder budgetEncodes = new LongAdder();
+    private final LongAdder budgetedBytes = new LongAdder();
+    // Encode buffers of each worker thread, kept across thumbnails
+    private static final ThreadLocal<EncodeBuffers> ENCODE_BUFFERS = ThreadLocal.withInitial(EncodeBuffers::new);
 
     /**
-     * Creates a ThumbnailGenerator with specified quality
-     * @param quality Quality percentage (0-100)
-     *                Controls both size (% of original image) and compression quality
+     * Creates a ThumbnailGenerator with specified quality, size and ladder
+     * @param quality Quality percentage (0-100), controls compression quality
+     * @param thumbnailSize target dimensions of the main thumbnail, which is written only
+     *                      without a ladder but always sets the tile size of the preview
+     * @param ladder long edges (px) of the sizes written into thumbnails/&lt;edge&gt;/ in
+     *               place of the main thumbnail, which the gallery page then never loads;
+     *               may be empty
      */
-    public ThumbnailGenerator(int quality) {
+    public ThumbnailGenerator(int quality, ThumbnailSize thumbnailSize, int[] ladder) {
         this.qualityPercent = Math.max(0, Math.min(100, quality));
         // Convert percentage to 0.0-1.0 range for compression
         this.compressionQuality = this.qualityPercent / 100f;
+        this.thumbnailSize = thumbnailSize;
+        this.ladder = ladder.clone();
+        Arrays.sort(this.ladder);
+        this.outputFormat = ImageIO.getImageWritersByFormatName("webp").hasNext() ? "webp" : "jpg";
+    }
+
+    /**
+     * Creates a ThumbnailGenerator with specified quality and size
+     * @param quality Quality percentage (0-100), controls compression quality
+     * @param thumbnailSize target dimensions of the generated thumbnails
+     */
+    public ThumbnailGenerator(int quality, ThumbnailSize thumbnailSize) {
+        this(quality, thumbnailSize, new int[0]);
+    }
+
+    /**
+     * Creates a ThumbnailGenerator with specified quality, sized for the gallery mosaic
+     * @param quality Quality percentage (0-100), controls compression quality
+     */
+    public ThumbnailGenerator(int quality) {
+        this(quality, ThumbnailSize.forGalleryMosaic());
     }
 
     /**
@@ -34,111 +96,600 @@ public class ThumbnailGenerator {
         this(85);
     }
 
-    public void createThumbnail(File sourceFile, File destFile) throws IOException {
-        BufferedImage originalImage = ImageIO.read(sourceFile);
+    /**
+     * Describes every setting that affects the generated thumbnails, including the
+     * output format the installed writers allow; two generators with the same settings
+     * produce identical output for the same source
+     */
+    public String getSettings() {
+        String settings = (targetBytes > 0 ? "target=" + targetBytes : "quality=" + qualityPercent)
+                + ";size=" + thumbnailSize + ";format=" + outputFormat;
+        if (ladder.length > 0) {
+            StringBuilder sb = new StringBuilder(settings).append(";ladder=");
+            for (int i = 0; i < ladder.length; i++) {
+                sb.append(i > 0 ? "," : "").append(ladder[i]);
+            }
+            settings = sb.toString();
+        }
+        return settings;
+    }
 
-        BufferedImage imageToSave;
+    /**
+     * Makes every thumbnail reserve its estimated decode memory before decoding, waiting
+     * while the budget is in use by other threads
+     * @param memoryBudget the shared budget, or null for no limit
+     */
+    public void setMemoryBudget(MemoryBudget memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
 
-        // At 100% quality, use original size
-        if (qualityPercent == 100) {
-            imageToSave = originalImage;
-        } else {
-            // Calculate thumbnail size as percentage of original image
-            int width = originalImage.getWidth();
-            int height = originalImage.getHeight();
+    /**
+     * Times the decode, scale, encode and preview stages of {@link #createThumbnails}
+     * into stageStats
+     */
+    public void setStageStats(StageStats stageStats) {
+        this.stageStats = stageStats;
+    }
 
-            // Apply quality percentage directly to original dimensions
-            double qualityScale = qualityPercent / 100.0;
+    /**
+     * Makes {@link #createThumbnails} look for the thumbnails in the cache before
+     * decoding, and store new ones there
+     * @param cache the shared cache, or null for none
+     */
+    public void setCache(ThumbnailCache cache) {
+        this.cache = cache;
+    }
 
-            int thumbWidth = (int) (width * qualityScale);
-            int thumbHeight = (int) (height * qualityScale);
+    /**
+     * Makes every thumbnail written by {@link #createThumbnails} the largest encoding
+     * that fits its budget, instead of using the fixed quality. The main thumbnail gets
+     * targetBytes, each ladder size gets targetBytes scaled by its area relative to the
+     * main thumbnail's, so every size the gallery may load is searched on its own.
+     * @param targetBytes the byte budget per main thumbnail, or 0 for the fixed quality
+     */
+    public void setTargetBytes(int targetBytes) {
+        this.targetBytes = Math.max(0, targetBytes);
+    }
 
-            // Ensure minimum size of 1px
-            thumbWidth = Math.max(1, thumbWidth);
-            thumbHeight = Math.max(1, thumbHeight);
+    public int getTargetBytes() {
+        return targetBytes;
+    }
 
-            BufferedImage thumbnail = new BufferedImage(thumbWidth, thumbHeight,
-                    BufferedImage.TYPE_INT_RGB);
-            Graphics2D g = thumbnail.createGraphics();
-            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
-                    RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-            g.setRenderingHint(RenderingHints.KEY_RENDERING,
-                    RenderingHints.VALUE_RENDER_QUALITY);
-            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
-                    RenderingHints.VALUE_ANTIALIAS_ON);
-            g.drawImage(originalImage, 0, 0, thumbWidth, thumbHeight, null);
-            g.dispose();
+    /**
+     * How the byte budget was met so far: thumbnails fitted, encodes per thumbnail and
+     * their average size
+     * @return the summary, or null if no thumbnail was fitted to a budget
+     */
+    public String getBudgetSummary() {
+        long count = budgetedThumbnails.sum();
+        if (count == 0) {
+            return null;
+        }
+        return String.format("%d fitted to %s per main thumbnail area: %.1f encodes each, %s average",
+                count, FileTransfer.formatBytes(targetBytes), (double) budgetEncodes.sum() / count,
+                FileTransfer.formatBytes(budgetedBytes.sum() / count));
+    }
 
-            imageToSave = thumbnail;
+    /**
+     * Creates the main thumbnail, or every ladder size from a single decode, or copies
+     * them from the cache when a source with the same content was thumbnailed with the
+     * same settings before, by any export. Sizes are produced largest first, each scaled
+     * down from the previous one.
+     * @param content the whole source file as read by {@link SourceBuffer}, or null to read sourceFile
+     * @param contentHash SHA-256 of the source file, or null to bypass the cache
+     * @param baseName file name without extension
+     * @return the files written: the main thumbnail in thumbnailsDir, or with a ladder
+     *         each ladder size in thumbnailsDir/&lt;edge&gt;/
+     */
+    public ThumbnailResult createThumbnails(File sourceFile, ByteBuffer content, String contentHash,
+                                            File thumbnailsDir, String baseName) throws IOException {
+        if (cache == null || contentHash == null) {
+            return generateThumbnails(sourceFile, content, thumbnailsDir, baseName);
+        }
+        try (StageStats.Timing timing = stageStats.start(StageStats.Stage.CACHE, sourceFile.getName())) {
+            ThumbnailResult cached = cache.get(contentHash, getSettings(), thumbnailsDir, baseName);
+            if (cached != null) {
+                long bytes = 0;
+                for (File file : cached.getFiles()) {
+                    bytes += file.length();
+                }
+                timing.setBytes(bytes);
+                return cached;
+            }
         }
+        ThumbnailResult result = generateThumbnails(sourceFile, content, thumbnailsDir, baseName);
+        cache.put(contentHash, getSettings(), thumbnailsDir, result);
+        return result;
+    }
 
+    /**
+     * Decodes the source once and writes every size, bypassing the cache
+     */
+    private ThumbnailResult generateThumbnails(File sourceFile, ByteBuffer content, File thumbnailsDir,
+                                               String baseName) throws IOException {
+        long reserved = reserveMemory(sourceFile, content, this::getLargestTarget);
         try {
-            saveAsWebP(imageToSave, destFile);
-        } catch (Exception e) {
-            // Fallback to JPEG if WebP fails
-            File jpegFile = new File(destFile.getParentFile(),
-                    destFile.getName().replace(".webp", ".jpg"));
-            saveAsJPEG(imageToSave, jpegFile);
+            DecodedSource source;
+            try (StageStats.Timing timing = stageStats.start(StageStats.Stage.DECODE, sourceFile.getName())) {
+                source = decode(sourceFile, content, this::getLargestTarget);
+                timing.setPixels((long) source.image.getWidth() * source.image.getHeight());
+                timing.setBytes(content != null ? content.limit() : sourceFile.length());
+            }
+            return writeThumbnails(source, thumbnailsDir, baseName);
+        } finally {
+            releaseMemory(reserved);
         }
     }
 
-    private void saveAsWebP(BufferedImage image, File destFile) throws IOException {
-        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("webp");
-        if (!writers.hasNext()) {
-            throw new IOException("WebP writer not available");
+    /**
+     * Scales the decoded source to the main thumbnail, or to every ladder size, and
+     * writes them, then shrinks the smallest one into the placeholder and the
+     * perceptual hash
+     */
+    private ThumbnailResult writeThumbnails(DecodedSource source, File thumbnailsDir, String baseName)
+            throws IOException {
+        Dimension mainSize = thumbnailSize.getTargetSize(source.sourceWidth, source.sourceHeight);
+        List<Dimension> sizes = new ArrayList<>();
+        List<File> destinations = new ArrayList<>();
+        if (ladder.length == 0) {
+            sizes.add(mainSize);
+            destinations.add(new File(thumbnailsDir, baseName + ".webp"));
+        }
+        for (int edge : ladder) {
+            sizes.add(ThumbnailSize.longEdge(edge).getTargetSize(source.sourceWidth, source.sourceHeight));
+            destinations.add(new File(new File(thumbnailsDir, String.valueOf(edge)), baseName + ".webp"));
+        }
+
+        Integer[] order = new Integer[sizes.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
         }
+        Arrays.sort(order, (x, y) -> Integer.compare(sizes.get(y).width, sizes.get(x).width));
 
-        ImageWriter writer = writers.next();
-        ImageWriteParam writeParam = writer.getDefaultWriteParam();
+        BufferedImage[] scaled = new BufferedImage[sizes.size()];
+        BufferedImage current = source.image;
+        for (int index : order) {
+            try (StageStats.Timing timing = stageStats.start(StageStats.Stage.SCALE,
+                    destinations.get(index).getName())) {
+                current = scaleTo(current, sizes.get(index));
+                timing.setPixels((long) current.getWidth() * current.getHeight());
+            }
+            scaled[index] = current;
+        }
+
+        File[] written = new File[sizes.size()];
+        double mainArea = (double) mainSize.width * mainSize.height;
+        for (int index = 0; index < scaled.length; index++) {
+            File destination = destinations.get(index);
+            BufferedImage image = scaled[index];
+            destination.getParentFile().mkdirs();
+            try (StageStats.Timing timing = stageStats.start(StageStats.Stage.ENCODE, destination.getName())) {
+                if (targetBytes > 0) {
+                    // Each size gets the main thumbnail's budget scaled by its area
+                    long budget = Math.max(1, Math.round(targetBytes
+                            * ((double) image.getWidth() * image.getHeight() / mainArea)));
+                    EncodeBuffers buffers = ENCODE_BUFFERS.get();
+                    fitToBudget(image, budget, buffers);
+                    written[index] = save(buffers, destination);
+                } else {
+                    written[index] = save(image, destination, compressionQuality);
+                }
+                timing.setPixels((long) image.getWidth() * image.getHeight());
+                timing.setBytes(written[index].length());
+            }
+        }
+        // current is now the smallest size, the cheapest to shrink into the placeholder and hash
+        try (StageStats.Timing timing = stageStats.start(StageStats.Stage.PREVIEW, baseName)) {
+            // The gallery lays tiles out at the main size, whichever file fills them
+            ThumbnailPreview preview = ThumbnailPreview.create(current, mainSize.width, mainSize.height);
+            timing.setPixels((long) current.getWidth() * current.getHeight());
+            return new ThumbnailResult(Arrays.asList(written), preview, PerceptualHash.dHash(current));
+        }
+    }
 
+    /**
+     * Reserves the estimated decode memory of sourceFile against the memory budget
+     * @return the bytes reserved, 0 if there is no budget
+     */
+    private long reserveMemory(File sourceFile, ByteBuffer content, TargetFunction targetForSource)
+            throws IOException {
+        if (memoryBudget == null) {
+            return 0;
+        }
         try {
-            // Set compression quality if supported
-            if (writeParam.canWriteCompressed()) {
-                writeParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
-
-                // Get supported compression types
-                String[] compressionTypes = writeParam.getCompressionTypes();
-                if (compressionTypes != null && compressionTypes.length > 0) {
-                    writeParam.setCompressionType(compressionTypes[0]);
+            return memoryBudget.reserve(estimateDecodeBytes(sourceFile, content, targetForSource));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for memory: " + sourceFile.getName());
+        }
+    }
+
+    private void releaseMemory(long reserved) {
+        if (memoryBudget != null) {
+            memoryBudget.release(reserved);
+        }
+    }
+
+    /**
+     * Estimates the bytes of pixels held while thumbnailing sourceFile, from the
+     * dimensions in its header: the subsampled decode at 4 bytes per pixel plus half
+     * as much again for the intermediate images of the resize
+     * @return the estimate, or 0 if the header cannot be read (the decode will then fail)
+     */
+    long estimateDecodeBytes(File sourceFile, ByteBuffer content, TargetFunction targetForSource) {
+        Dimension size = readImageSize(sourceFile, content);
+        if (size == null) {
+            return 0;
+        }
+        Dimension target = targetForSource.apply(size.width, size.height);
+        int subsampling = getSubsampling(size.width, size.height, target);
+        long decodedPixels = (long) ((size.width + subsampling - 1) / subsampling)
+                * ((size.height + subsampling - 1) / subsampling);
+        return decodedPixels * 4 * 3 / 2;
+    }
+
+    /**
+     * Reads the image dimensions from the file header without decoding any pixels
+     * @return the dimensions, or null if no reader understands the file
+     */
+    static Dimension readImageSize(File sourceFile) {
+        return readImageSize(sourceFile, null);
+    }
+
+    private static Dimension readImageSize(File sourceFile, ByteBuffer content) {
+        try (ImageInputStream iis = openImage(sourceFile, content)) {
+            if (iis == null) {
+                return null;
+            }
+            CodecPool codecs = CodecPool.forCurrentThread();
+            ImageReader reader = codecs.getReader(iis);
+            if (reader == null) {
+                return null;
+            }
+            try {
+                return new Dimension(reader.getWidth(0), reader.getHeight(0));
+            } finally {
+                codecs.release(reader);
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Largest image any output needs, so a single decode can serve all of them
+     */
+    private Dimension getLargestTarget(int sourceWidth, int sourceHeight) {
+        if (ladder.length == 0) {
+            return thumbnailSize.getTargetSize(sourceWidth, sourceHeight);
+        }
+        return ThumbnailSize.longEdge(ladder[ladder.length - 1]).getTargetSize(sourceWidth, sourceHeight);
+    }
+
+    /**
+     * Writes the image as WebP, or as a .jpg next to destFile if WebP fails. The image
+     * is written to a temporary file first and renamed into place, so an interrupted
+     * export never leaves a half-written thumbnail behind.
+     * @return the file actually written
+     */
+    private File save(BufferedImage image, File destFile, float quality) throws IOException {
+        EncodeBuffers buffers = ENCODE_BUFFERS.get();
+        String format = encode(image, quality, buffers.scratch);
+        return write(buffers.scratch, format, destFile);
+    }
+
+    /**
+     * Writes the best encoding of a budget search, the same way as an encoded image
+     * @return the file actually written: destFile, or a .jpg next to it if WebP failed
+     */
+    private File save(EncodeBuffers buffers, File destFile) throws IOException {
+        return write(buffers.best, buffers.bestFormat, destFile);
+    }
+
+    /**
+     * Writes an encoded image to destFile, or to a .jpg next to it if it is a JPEG, in
+     * one write to a temporary file that is then renamed into place
+     * @return the file written
+     */
+    private static File write(EncodeBuffer encoded, String format, File destFile) throws IOException {
+        File file = format.equals("webp") ? destFile
+                : new File(destFile.getParentFile(), destFile.getName().replace(".webp", ".jpg"));
+        File tempFile = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tempFile)) {
+            encoded.writeTo(out);
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return file;
+    }
+
+    /**
+     * Searches for the highest quality whose encoding of image fits budget bytes,
+     * encoding into memory only. Starts from {@link #START_SEARCH_QUALITY}, then
+     * steps along the secant through the last two encodes on the logarithm of the size,
+     * and stops as soon as an encoding is within the tolerance below the budget. If even
+     * the lowest quality is too large, that encoding is kept. The chosen encoding is left
+     * in buffers.best.
+     */
+    private void fitToBudget(BufferedImage image, long budget, EncodeBuffers buffers) throws IOException {
+        double goal = Math.log(budget * (1 - BUDGET_TOLERANCE / 2));
+        // Untried qualities that may still be the answer
+        int low = MIN_SEARCH_QUALITY;
+        int high = MAX_SEARCH_QUALITY;
+        boolean fitted = false;
+        int previous = -1;
+        double previousLog = 0;
+        int quality = START_SEARCH_QUALITY;
+        int encodes = 0;
+        while (true) {
+            buffers.scratchFormat = encode(image, quality / 100f, buffers.scratch);
+            int size = buffers.scratch.size();
+            encodes++;
+            if (size <= budget) {
+                buffers.keepScratch();
+                fitted = true;
+                if (size >= budget * (1 - BUDGET_TOLERANCE)) {
+                    break;
                 }
+                low = quality + 1;
+            } else {
+                high = quality - 1;
+            }
+            if (low > high) {
+                break;
+            }
+            double sizeLog = Math.log(size);
+            double slope = previous >= 0 && sizeLog != previousLog
+                    ? (sizeLog - previousLog) / (quality - previous) : LOG_SIZE_PER_QUALITY;
+            previous = quality;
+            previousLog = sizeLog;
+            quality = Math.max(low, Math.min(high, (int) Math.round(quality + (goal - sizeLog) / slope)));
+        }
+        if (!fitted) {
+            // Nothing fits: the smallest encoding is the closest, and the last one made
+            buffers.keepScratch();
+        }
+        budgetedThumbnails.increment();
+        budgetEncodes.add(encodes);
+        budgetedBytes.add(buffers.best.size());
+    }
 
-                // Use compression quality based on slider
-                writeParam.setCompressionQuality(compressionQuality);
+    /**
+     * Encodes image into buffer as WebP with this thread's pooled codecs, or as JPEG if
+     * WebP is not available or fails
+     * @return the format written, "webp" or "jpg"
+     */
+    private static String encode(BufferedImage image, float quality, EncodeBuffer buffer)
+            throws IOException {
+        CodecPool codecs = CodecPool.forCurrentThread();
+        if (codecs.canWrite("webp")) {
+            try {
+                codecs.encode(image, "webp", quality, buffer);
+                return "webp";
+            } catch (Exception e) {
+                // Fallback to JPEG if WebP fails
             }
+        }
+        codecs.encode(image, "jpg", quality, buffer);
+        return "jpg";
+    }
 
-            try (ImageOutputStream ios = ImageIO.createImageOutputStream(destFile)) {
-                writer.setOutput(ios);
-                writer.write(null, new IIOImage(image, null, null), writeParam);
+    /**
+     * Produces the scaled thumbnail image. JPEGs whose embedded camera preview is at
+     * least as large as the thumbnail are scaled from that preview; everything else
+     * goes through the subsampled full decode.
+     * @throws IOException if the file cannot be read or no reader supports its format
+     */
+    BufferedImage readScaledImage(File sourceFile) throws IOException {
+        DecodedSource source = decode(sourceFile, thumbnailSize::getTargetSize);
+        return scaleTo(source.image, thumbnailSize.getTargetSize(source.sourceWidth, source.sourceHeight));
+    }
+
+    /**
+     * Decodes just enough of the source for the given target size
+     * @param targetForSource maps the original's width and height to the target size
+     */
+    private DecodedSource decode(File sourceFile, TargetFunction targetForSource) throws IOException {
+        return decode(sourceFile, null, targetForSource);
+    }
+
+    /**
+     * @param content the whole source file in memory, or null to read sourceFile
+     */
+    private DecodedSource decode(File sourceFile, ByteBuffer content, TargetFunction targetForSource)
+            throws IOException {
+        DecodedSource preview = decodeEmbeddedPreview(sourceFile, content, targetForSource);
+        if (preview != null) {
+            return preview;
+        }
+
+        try (ImageInputStream iis = openImage(sourceFile, content)) {
+            if (iis == null) {
+                throw new IOException("Cannot open image: " + sourceFile.getName());
             }
-        } finally {
-            writer.dispose();
+            return decodeSubsampled(iis, sourceFile.getName(), targetForSource, null);
         }
     }
 
-    private void saveAsJPEG(BufferedImage image, File destFile) throws IOException {
-        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpg");
-        if (!writers.hasNext()) {
-            // Final fallback
-            ImageIO.write(image, "jpg", destFile);
-            return;
+    /**
+     * Opens the source for ImageIO: its bytes in memory if given, otherwise the file
+     * @return the stream, or null if ImageIO cannot open the file
+     */
+    private static ImageInputStream openImage(File sourceFile, ByteBuffer content) throws IOException {
+        return content != null ? new ByteBufferImageInputStream(content) : ImageIO.createImageInputStream(sourceFile);
+    }
+
+    /**
+     * Fast path: decodes only the embedded preview of a JPEG
+     * @return the decoded preview, or null if there is no preview large enough
+     */
+    private DecodedSource decodeEmbeddedPreview(File sourceFile, ByteBuffer content,
+                                                TargetFunction targetForSource) {
+        try {
+            EmbeddedPreview preview = content != null ? EmbeddedPreview.find(content)
+                    : EmbeddedPreview.find(sourceFile);
+            if (preview == null) {
+                return null;
+            }
+            Dimension target = targetForSource.apply(preview.getSourceWidth(), preview.getSourceHeight());
+            if (!preview.covers(target)) {
+                return null;
+            }
+            ByteBuffer previewData = content != null ? preview.getData(content)
+                    : ByteBuffer.wrap(preview.readData(sourceFile));
+            try (ImageInputStream iis = new ByteBufferImageInputStream(previewData)) {
+                DecodedSource decoded = decodeSubsampled(iis, sourceFile.getName(), null, target);
+                decoded.sourceWidth = preview.getSourceWidth();
+                decoded.sourceHeight = preview.getSourceHeight();
+                return decoded;
+            }
+        } catch (IOException e) {
+            // Malformed metadata or preview: fall back to decoding the full image
+            return null;
         }
+    }
 
-        ImageWriter writer = writers.next();
-        ImageWriteParam writeParam = writer.getDefaultWriteParam();
+    /**
+     * Decodes an image at reduced resolution. The reader subsamples while decoding,
+     * so the full-resolution raster is never allocated; only an image of about twice
+     * the target size is held in memory.
+     * @param targetForSource derives the target from the image's size, used when target is null
+     */
+    private DecodedSource decodeSubsampled(ImageInputStream iis, String name,
+                                           TargetFunction targetForSource, Dimension target)
+            throws IOException {
+        CodecPool codecs = CodecPool.forCurrentThread();
+        ImageReader reader = codecs.getReader(iis);
+        if (reader == null) {
+            throw new IOException("Unsupported image format: " + name);
+        }
 
         try {
-            // Set JPEG compression quality
-            if (writeParam.canWriteCompressed()) {
-                writeParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
-                writeParam.setCompressionQuality(compressionQuality);
+            int width = reader.getWidth(0);
+            int height = reader.getHeight(0);
+            if (target == null) {
+                target = targetForSource.apply(width, height);
             }
 
-            try (ImageOutputStream ios = ImageIO.createImageOutputStream(destFile)) {
-                writer.setOutput(ios);
-                writer.write(null, new IIOImage(image, null, null), writeParam);
+            ImageReadParam readParam = reader.getDefaultReadParam();
+            int subsampling = getSubsampling(width, height, target);
+            if (subsampling > 1) {
+                readParam.setSourceSubsampling(subsampling, subsampling, 0, 0);
             }
+            DecodedSource decoded = new DecodedSource();
+            decoded.image = reader.read(0, readParam);
+            decoded.sourceWidth = width;
+            decoded.sourceHeight = height;
+            return decoded;
         } finally {
-            writer.dispose();
+            codecs.release(reader);
         }
     }
+
+    /**
+     * Resizes unless the image already has the target size
+     */
+    private static BufferedImage scaleTo(BufferedImage image, Dimension target) {
+        if (image.getWidth() == target.width && image.getHeight() == target.height) {
+            return image;
+        }
+        return resize(image, target.width, target.height);
+    }
+
+    /**
+     * Largest decode subsampling that still leaves at least twice the target size,
+     * so the final resize has enough pixels to filter instead of point-sampling
+     */
+    static int getSubsampling(int width, int height, Dimension target) {
+        double ratio = Math.min((double) width / target.width, (double) height / target.height);
+        return Math.max(1, (int) (ratio / 2));
+    }
+
+    /**
+     * High-quality downscale: halves the image with bilinear filtering until the
+     * target is within a factor of two, then does a final bicubic step
+     */
+    static BufferedImage resize(BufferedImage source, int targetWidth, int targetHeight) {
+        BufferedImage current = source;
+        int width = source.getWidth();
+        int height = source.getHeight();
+
+        do {
+            width = (width / 2 >= targetWidth) ? width / 2 : targetWidth;
+            height = (height / 2 >= targetHeight) ? height / 2 : targetHeight;
+            boolean finalStep = width == targetWidth && height == targetHeight;
+            current = drawScaled(current, width, height, finalStep
+                    ? RenderingHints.VALUE_INTERPOLATION_BICUBIC
+                    : RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        } while (width != targetWidth || height != targetHeight);
+
+        return current;
+    }
+
+    private static BufferedImage drawScaled(BufferedImage source, int width, int height,
+                                            Object interpolation) {
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = scaled.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, interpolation);
+        g.setRenderingHint(RenderingHints.KEY_RENDERING,
+                RenderingHints.VALUE_RENDER_QUALITY);
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                RenderingHints.VALUE_ANTIALIAS_ON);
+        g.drawImage(source, 0, 0, width, height, null);
+        g.dispose();
+        return scaled;
+    }
+
+    void saveAsWebP(BufferedImage image, File destFile) throws IOException {
+        saveAs("webp", image, destFile);
+    }
+
+    void saveAsJPEG(BufferedImage image, File destFile) throws IOException {
+        saveAs("jpg", image, destFile);
+    }
+
+    private void saveAs(String format, BufferedImage image, File destFile) throws IOException {
+        EncodeBuffer buffer = ENCODE_BUFFERS.get().scratch;
+        CodecPool.forCurrentThread().encode(image, format, compressionQuality, buffer);
+        try (FileOutputStream out = new FileOutputStream(destFile)) {
+            buffer.writeTo(out);
+        }
+    }
+
+    /**
+     * Maps a source image's width and height to the size it must be decoded for
+     */
+    interface TargetFunction {
+        Dimension apply(int sourceWidth, int sourceHeight);
+    }
+
+    /**
+     * The in-memory encodings of a worker thread: scratch receives every encode, and a
+     * budget search moves the best one that fits so far into best. Both grow to the
+     * largest thumbnail and are then reused, so encoding allocates no output arrays.
+     */
+    private static final class EncodeBuffers {
+        private EncodeBuffer best = new EncodeBuffer(64 * 1024);
+        private EncodeBuffer scratch = new EncodeBuffer(64 * 1024);
+        private String bestFormat;
+        private String scratchFormat;
+
+        /**
+         * Makes the encoding just made the best one
+         */
+        private void keepScratch() {
+            EncodeBuffer previous = best;
+            best = scratch;
+            scratch = previous;
+            bestFormat = scratchFormat;
+        }
+    }
+
+    /**
+     * A decoded (possibly subsampled) image and the dimensions of the original
+     */
+    private static final class DecodedSource {
+        private BufferedImage image;
+        private int sourceWidth;
+        private int sourceHeight;
+    }
 }
@@ -0,0 +1,119 @@
+package git.campones76;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Base64;
+
+/**
+ * What the gallery page needs to lay out a tile before its thumbnail has loaded:
+ * the thumbnail's dimensions, its average colour, and a tiny GIF of it that the
+ * browser stretches into a blurred preview
+ */
+public class ThumbnailPreview {
+    // Long edge of the placeholder GIF; a few hundred bytes of base64
+    private static final int PLACEHOLDER_EDGE = 16;
+
+    private final int width;
+    private final int height;
+    private final String dominantColor;
+    private final String placeholderGif;
+
+    /**
+     * @param dominantColor CSS colour such as #a0b1c2
+     * @param placeholderGif base64 of a GIF image, without a data: prefix
+     */
+    public ThumbnailPreview(int width, int height, String dominantColor, String placeholderGif) {
+        this.width = width;
+        this.height = height;
+        this.dominantColor = dominantColor;
+        this.placeholderGif = placeholderGif;
+    }
+
+    /**
+     * Builds the preview from an already scaled image, preferably the smallest one
+     * written, so no further decode is needed
+     * @param width width of the main thumbnail
+     * @param height height of the main thumbnail
+     */
+    static ThumbnailPreview create(BufferedImage scaled, int width, int height) throws IOException {
+        Dimension size = ThumbnailSize.longEdge(PLACEHOLDER_EDGE).getTargetSize(scaled.getWidth(), scaled.getHeight());
+        BufferedImage tiny = ThumbnailGenerator.resize(scaled, size.width, size.height);
+
+        long red = 0;
+        long green = 0;
+        long blue = 0;
+        int[] pixels = tiny.getRGB(0, 0, tiny.getWidth(), tiny.getHeight(), null, 0, tiny.getWidth());
+        for (int pixel : pixels) {
+            red += (pixel >> 16) & 0xFF;
+            green += (pixel >> 8) & 0xFF;
+            blue += pixel & 0xFF;
+        }
+        String dominantColor = String.format("#%02x%02x%02x",
+                red / pixels.length, green / pixels.length, blue / pixels.length);
+
+        // Few distinct colours give the GIF a small colour table; the blur hides the banding
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = quantize(pixels[i] >> 16) << 16 | quantize(pixels[i] >> 8) << 8 | quantize(pixels[i]);
+        }
+        tiny.setRGB(0, 0, tiny.getWidth(), tiny.getHeight(), pixels, 0, tiny.getWidth());
+
+        ByteArrayOutputStream gif = new ByteArrayOutputStream();
+        if (!ImageIO.write(tiny, "gif", gif)) {
+            throw new IOException("No GIF writer available");
+        }
+        return new ThumbnailPreview(width, height, dominantColor,
+                Base64.getEncoder().encodeToString(gif.toByteArray()));
+    }
+
+    /**
+     * Rounds a colour channel to one of six levels (the web-safe palette)
+     */
+    private static int quantize(int channel) {
+        return Math.round((channel & 0xFF) / 51f) * 51;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public String getDominantColor() {
+        return dominantColor;
+    }
+
+    public String getPlaceholderGif() {
+        return placeholderGif;
+    }
+
+    /**
+     * Single-token form for the export manifest: WxH#rrggbb:base64
+     */
+    String format() {
+        return width + "x" + height + dominantColor + ":" + placeholderGif;
+    }
+
+    /**
+     * @return the preview, or null if value is not in the form written by {@link #format}
+     */
+    static ThumbnailPreview parse(String value) {
+        int x = value.indexOf('x');
+        int hash = value.indexOf('#');
+        int colon = value.indexOf(':');
+        if (x < 0 || hash < x || colon < hash) {
+            return null;
+        }
+        try {
+            return new ThumbnailPreview(Integer.parseInt(value.substring(0, x)),
+                    Integer.parseInt(value.substring(x + 1, hash)),
+                    value.substring(hash, colon), value.substring(colon + 1));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package git.campones76;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The files produced for one photo by {@link ThumbnailGenerator#createThumbnails},
+ * with the dimensions and placeholder the gallery page shows while they load
+ */
+public class ThumbnailResult {
+    private final List<File> files;
+    private final ThumbnailPreview preview;
+    private final long perceptualHash;
+
+    /**
+     * @param files the main thumbnail, or one file per ladder size
+     */
+    public ThumbnailResult(List<File> files, ThumbnailPreview preview, long perceptualHash) {
+        this.files = files;
+        this.preview = preview;
+        this.perceptualHash = perceptualHash;
+    }
+
+    /**
+     * Every file written: the main thumbnail, or one per ladder size
+     */
+    public List<File> getFiles() {
+        return Collections.unmodifiableList(files);
+    }
+
+    /**
+     * Dimensions of the main thumbnail and its placeholder
+     */
+    public ThumbnailPreview getPreview() {
+        return preview;
+    }
+
+    /**
+     * dHash of the photo, for finding near-duplicates
+     */
+    public long getPerceptualHash() {
+        return perceptualHash;
+    }
+}
@@ -0,0 +1,117 @@
+package git.campones76;
+
+import java.awt.*;
+
+/**
+ * Describes how large generated thumbnails should be.
+ * Sizing is independent of the compression quality chosen in {@link QualityControlPanel},
+ * except in the legacy percent-of-original mode.
+ */
+public class ThumbnailSize {
+
+    public enum Mode {
+        /** Scale to fit inside a width x height box */
+        FIT_BOX,
+        /** Scale so the longer side has a fixed length */
+        LONG_EDGE,
+        /** Scale each side to a percentage of the original */
+        PERCENT_OF_ORIGINAL
+    }
+
+    private final Mode mode;
+    private final int width;
+    private final int height;
+
+    private ThumbnailSize(Mode mode, int width, int height) {
+        this.mode = mode;
+        this.width = Math.max(1, width);
+        this.height = Math.max(1, height);
+    }
+
+    /**
+     * Thumbnails that fit within the given box, keeping the aspect ratio
+     */
+    public static ThumbnailSize fitWithin(int width, int height) {
+        return new ThumbnailSize(Mode.FIT_BOX, width, height);
+    }
+
+    /**
+     * Thumbnails whose longer side is the given number of pixels
+     */
+    public static ThumbnailSize longEdge(int pixels) {
+        return new ThumbnailSize(Mode.LONG_EDGE, pixels, pixels);
+    }
+
+    /**
+     * Thumbnails scaled to a percentage of the original (the behaviour before sizing
+     * was separated from quality); 100 keeps the original size
+     */
+    public static ThumbnailSize percentOfOriginal(int percent) {
+        int clamped = Math.max(1, Math.min(100, percent));
+        return new ThumbnailSize(Mode.PERCENT_OF_ORIGINAL, clamped, clamped);
+    }
+
+    /**
+     * The size the gallery actually displays: the largest mosaic tile (two cells
+     * plus the gutter between them in each direction)
+     */
+    public static ThumbnailSize forGalleryMosaic() {
+        return fitWithin(HTMLGenerator.getLargestTileWidth(), HTMLGenerator.getLargestTileHeight());
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Calculates the thumbnail dimensions for a source image. Never upscales.
+     */
+    public Dimension getTargetSize(int sourceWidth, int sourceHeight) {
+        double scale;
+        switch (mode) {
+            case FIT_BOX:
+                scale = Math.min((double) width / sourceWidth, (double) height / sourceHeight);
+                break;
+            case LONG_EDGE:
+                scale = (double) width / Math.max(sourceWidth, sourceHeight);
+                break;
+            default:
+                scale = width / 100.0;
+                break;
+        }
+        if (scale >= 1.0) {
+            return new Dimension(sourceWidth, sourceHeight);
+        }
+
+        // Ensure minimum size of 1px
+        int thumbWidth = Math.max(1, (int) Math.round(sourceWidth * scale));
+        int thumbHeight = Math.max(1, (int) Math.round(sourceHeight * scale));
+        return new Dimension(thumbWidth, thumbHeight);
+    }
+
+    @Override
+    public String toString() {
+        switch (mode) {
+            case FIT_BOX:
+                return "fit " + width + "x" + height;
+            case LONG_EDGE:
+                return "long edge " + width + "px";
+            default:
+                return width + "% of original";
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof ThumbnailSize)) {
+            return false;
+        }
+        ThumbnailSize other = (ThumbnailSize) o;
+        return mode == other.mode && width == other.width && height == other.height;
+    }
+
+    @Override
+    public int hashCode() {
+        return (mode.hashCode() * 31 + width) * 31 + height;
+    }
+}
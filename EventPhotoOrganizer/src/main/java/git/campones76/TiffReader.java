@@ -0,0 +1,146 @@
+package git.campones76;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Minimal reader for TIFF image file directories, as embedded in Exif and MPF segments.
+ * Offsets are relative to the start of the TIFF header (the first byte of data).
+ */
+final class TiffReader {
+    // Byte size of each TIFF field type, indexed by type code
+    private static final int[] TYPE_SIZES = {0, 1, 1, 2, 4, 8, 1, 1, 2, 4, 8, 4, 8};
+
+    private final byte[] data;
+    private final boolean littleEndian;
+
+    TiffReader(byte[] data) throws IOException {
+        this.data = data;
+        if (data.length < 8) {
+            throw new IOException("Malformed TIFF data");
+        }
+        if (data[0] == 'I' && data[1] == 'I') {
+            littleEndian = true;
+        } else if (data[0] == 'M' && data[1] == 'M') {
+            littleEndian = false;
+        } else {
+            throw new IOException("Malformed TIFF byte order");
+        }
+    }
+
+    int getFirstIfdOffset() throws IOException {
+        return (int) readUnsigned(4, 4);
+    }
+
+    Ifd readIfd(int offset) throws IOException {
+        int count = (int) readUnsigned(offset, 2);
+        Ifd ifd = new Ifd();
+        int position = offset + 2;
+        for (int i = 0; i < count; i++, position += 12) {
+            int tag = (int) readUnsigned(position, 2);
+            int type = (int) readUnsigned(position + 2, 2);
+            long valueCount = readUnsigned(position + 4, 4);
+            int size = (type > 0 && type < TYPE_SIZES.length) ? TYPE_SIZES[type] : 1;
+            long byteCount = valueCount * size;
+            int valueOffset = byteCount <= 4 ? position + 8 : (int) readUnsigned(position + 8, 4);
+            ifd.entries.put(tag, new Entry(type, (int) Math.min(valueCount, Integer.MAX_VALUE), valueOffset));
+        }
+        ifd.nextIfdOffset = (int) readUnsigned(position, 4);
+        return ifd;
+    }
+
+    /**
+     * Numeric value of an entry (first value for multi-valued entries)
+     */
+    long getNumber(Entry entry) throws IOException {
+        switch (entry.type) {
+            case 3:
+            case 8:
+                return readUnsigned(entry.valueOffset, 2);
+            case 4:
+            case 9:
+                return readUnsigned(entry.valueOffset, 4);
+            default:
+                return readUnsigned(entry.valueOffset, 1);
+        }
+    }
+
+    String getString(Entry entry) throws IOException {
+        byte[] bytes = getBytes(entry);
+        int end = 0;
+        while (end < bytes.length && bytes[end] != 0) {
+            end++;
+        }
+        return new String(bytes, 0, end, StandardCharsets.ISO_8859_1).trim();
+    }
+
+    byte[] getBytes(Entry entry) throws IOException {
+        int size = (entry.type > 0 && entry.type < TYPE_SIZES.length) ? TYPE_SIZES[entry.type] : 1;
+        long length = (long) entry.count * size;
+        checkBounds(entry.valueOffset, length);
+        byte[] bytes = new byte[(int) length];
+        System.arraycopy(data, entry.valueOffset, bytes, 0, bytes.length);
+        return bytes;
+    }
+
+    /**
+     * Reads an unsigned big- or little-endian integer of 1, 2 or 4 bytes
+     */
+    long readUnsigned(int offset, int length) throws IOException {
+        checkBounds(offset, length);
+        long value = 0;
+        for (int i = 0; i < length; i++) {
+            int b = data[offset + (littleEndian ? length - 1 - i : i)] & 0xFF;
+            value = (value << 8) | b;
+        }
+        return value;
+    }
+
+    private void checkBounds(int offset, long length) throws IOException {
+        if (offset < 0 || offset + length > data.length) {
+            throw new IOException("Malformed TIFF data: offset out of range");
+        }
+    }
+
+    /**
+     * One image file directory: its entries by tag and the offset of the next directory
+     */
+    static final class Ifd {
+        private final Map<Integer, Entry> entries = new HashMap<>();
+        private int nextIfdOffset;
+
+        Entry get(int tag) {
+            return entries.get(tag);
+        }
+
+        int getNextIfdOffset() {
+            return nextIfdOffset;
+        }
+    }
+
+    static final class Entry {
+        private final int type;
+        private final int count;
+        private final int valueOffset;
+
+        Entry(int type, int count, int valueOffset) {
+            this.type = type;
+            this.count = count;
+            this.valueOffset = valueOffset;
+        }
+
+        int getCount() {
+            return count;
+        }
+
+        /**
+         * Where the value is stored: inside the entry for small values, otherwise
+         * the offset the entry points to
+         */
+        int getValueOffset() {
+            return valueOffset;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package git.campones76;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The JavaScript and CSS libraries the gallery page loads. They are either linked
+ * from the cdnjs CDN, or bundled into assets/vendor from the WebJars on the classpath
+ * under content-hashed names, so a static server can cache them forever.
+ */
+public class VendorLibraries {
+    public static final String VENDOR_DIR = "assets/vendor";
+
+    /**
+     * Where the gallery page loads its libraries from
+     */
+    public enum Mode {
+        CDN("Load libraries from CDN"),
+        BUNDLED("Bundle libraries, precompress (offline)");
+
+        private final String label;
+
+        Mode(String label) {
+            this.label = label;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    public enum Library {
+        JQUERY("jquery.min.js",
+                "/META-INF/resources/webjars/jquery/3.6.0/jquery.min.js",
+                "https://cdnjs.cloudflare.com/ajax/libs/jquery/3.6.0/jquery.min.js"),
+        NANOGALLERY2_JS("jquery.nanogallery2.min.js",
+                "/META-INF/resources/webjars/nanogallery2/3.0.5/dist/jquery.nanogallery2.min.js",
+                "https://cdnjs.cloudflare.com/ajax/libs/nanogallery2/3.0.5/jquery.nanogallery2.min.js"),
+        NANOGALLERY2_CSS("nanogallery2.min.css",
+                "/META-INF/resources/webjars/nanogallery2/3.0.5/dist/css/nanogallery2.min.css",
+                "https://cdnjs.cloudflare.com/ajax/libs/nanogallery2/3.0.5/css/nanogallery2.min.css");
+
+        private final String fileName;
+        private final String resourcePath;
+        private final String cdnUrl;
+
+        Library(String fileName, String resourcePath, String cdnUrl) {
+            this.fileName = fileName;
+            this.resourcePath = resourcePath;
+            this.cdnUrl = cdnUrl;
+        }
+
+        public String getCdnUrl() {
+            return cdnUrl;
+        }
+    }
+
+    private VendorLibraries() {
+    }
+
+    /**
+     * URLs of every library on the CDN
+     */
+    public static Map<Library, String> cdnUrls() {
+        Map<Library, String> urls = new EnumMap<>(Library.class);
+        for (Library library : Library.values()) {
+            urls.put(library, library.getCdnUrl());
+        }
+        return urls;
+    }
+
+    /**
+     * Copies every library into destDir/assets/vendor as name.&lt;hash&gt;.ext and removes
+     * copies left over from other versions. A library missing from the classpath keeps
+     * its CDN URL.
+     * @return the URL of every library, relative to destDir
+     */
+    public static Map<Library, String> bundle(File destDir) throws IOException {
+        File vendorDir = new File(destDir, VENDOR_DIR);
+        vendorDir.mkdirs();
+
+        Map<Library, String> urls = new EnumMap<>(Library.class);
+        Set<String> written = new HashSet<>();
+        for (Library library : Library.values()) {
+            byte[] data = readResource(library.resourcePath);
+            if (data == null) {
+                System.err.println("Library not bundled, using CDN: " + library.resourcePath + " not on classpath");
+                urls.put(library, library.getCdnUrl());
+                continue;
+            }
+            String hash = FileUtils.toHex(FileUtils.newSha256().digest(data)).substring(0, 10);
+            int dot = library.fileName.lastIndexOf('.');
+            String hashedName = library.fileName.substring(0, dot) + "." + hash + library.fileName.substring(dot);
+            File target = new File(vendorDir, hashedName);
+            // The name changes with the content, so an existing file is already correct
+            if (!target.isFile()) {
+                File temp = new File(vendorDir, hashedName + ".tmp");
+                Files.write(temp.toPath(), data);
+                Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            written.add(hashedName);
+            urls.put(library, VENDOR_DIR + "/" + hashedName);
+        }
+
+        File[] existing = vendorDir.listFiles();
+        if (existing != null) {
+            for (File file : existing) {
+                if (!written.contains(file.getName()) && !written.contains(stripGzip(file.getName()))) {
+                    file.delete();
+                }
+            }
+        }
+        return urls;
+    }
+
+    private static String stripGzip(String name) {
+        return name.endsWith(Precompressor.SUFFIX)
+                ? name.substring(0, name.length() - Precompressor.SUFFIX.length()) : name;
+    }
+
+    private static byte[] readResource(String resourcePath) throws IOException {
+        try (InputStream is = VendorLibraries.class.getResourceAsStream(resourcePath)) {
+            if (is == null) {
+                return null;
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+}